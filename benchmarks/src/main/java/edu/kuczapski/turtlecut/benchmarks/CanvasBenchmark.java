@@ -0,0 +1,51 @@
+package edu.kuczapski.turtlecut.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.kuczapski.turtlecut.scripting.Cutter;
+
+/**
+ * Clearing the canvas of the cutter, which happens at the start of every
+ * render through {@link Cutter#setCanvasSize(double, double)}. With the same
+ * size only the tiles drawn on are restored from the cached background,
+ * with another size the background is drawn again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CanvasBenchmark {
+
+	private Cutter cutter;
+	private boolean small;
+
+	@Setup
+	public void setUp() {
+		cutter = new Cutter(CutterBenchmark.CANVAS_WIDTH_MM, CutterBenchmark.CANVAS_HEIGHT_MM, CutterBenchmark.PIXEL_SIZE_MM);
+	}
+
+	@Benchmark
+	public void clearCanvas() {
+		cutter.setCanvasSize(CutterBenchmark.CANVAS_WIDTH_MM, CutterBenchmark.CANVAS_HEIGHT_MM);
+	}
+
+	@Benchmark
+	public void clearCanvasResized() {
+		small = !small;
+		double scale = small ? 0.5 : 1;
+		cutter.setCanvasSize(CutterBenchmark.CANVAS_WIDTH_MM*scale, CutterBenchmark.CANVAS_HEIGHT_MM*scale);
+	}
+}
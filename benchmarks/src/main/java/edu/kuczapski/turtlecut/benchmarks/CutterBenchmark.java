@@ -0,0 +1,72 @@
+package edu.kuczapski.turtlecut.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.kuczapski.turtlecut.scripting.Cutter;
+import edu.kuczapski.turtlecut.scripting.DisplayList;
+import edu.kuczapski.turtlecut.scripting.TurtleCompiler;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.ProgramContext;
+
+/**
+ * The preview of a program, without animation. {@link #interpret()} only
+ * runs the compiler over a parsed tree, {@link #execute()} parses, compiles
+ * and rasterizes like an edit of a new program, {@link #rasterize()}
+ * executes a program found in the compile cache, so only the drawing is left.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CutterBenchmark {
+
+	static final double CANVAS_WIDTH_MM = 400;
+	static final double CANVAS_HEIGHT_MM = 400;
+	static final double PIXEL_SIZE_MM = 0.25;
+
+	@Param({"10", "1000", "100000", "1000000"})
+	public int commands;
+
+	private String program;
+	private ProgramContext tree;
+	private Cutter cutter;
+
+	@Setup
+	public void setUp() {
+		program = ProgramGenerator.generate(commands);
+		tree = TurtleCompiler.parse(program);
+		cutter = new Cutter(CANVAS_WIDTH_MM, CANVAS_HEIGHT_MM, PIXEL_SIZE_MM);
+	}
+
+	@Benchmark
+	public DisplayList interpret() {
+		return new TurtleCompiler(CANVAS_WIDTH_MM, CANVAS_HEIGHT_MM).compile(tree);
+	}
+
+	//the cache holds a single program here, clearing it costs nothing next to a compilation
+	@Benchmark
+	public DisplayList execute() {
+		cutter.getCompileCache().clear();
+		cutter.execute(program, 0);
+		return cutter.getDisplayList();
+	}
+
+	@Benchmark
+	public DisplayList rasterize() {
+		cutter.execute(program, 0);
+		return cutter.getDisplayList();
+	}
+}
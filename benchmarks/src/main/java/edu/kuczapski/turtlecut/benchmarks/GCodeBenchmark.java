@@ -0,0 +1,53 @@
+package edu.kuczapski.turtlecut.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.kuczapski.turtlecut.scripting.DisplayList;
+import edu.kuczapski.turtlecut.scripting.GCodeGenerator;
+import edu.kuczapski.turtlecut.scripting.TurtleCompiler;
+
+/**
+ * {@link GCodeGenerator#generate(DisplayList)} of a compiled program, with
+ * the default options and with the travel optimization.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GCodeBenchmark {
+
+	@Param({"10", "1000", "100000", "1000000"})
+	public int commands;
+
+	@Param({"false", "true"})
+	public boolean optimizeTravel;
+
+	private DisplayList displayList;
+
+	@Setup
+	public void setUp() {
+		displayList = new TurtleCompiler(CutterBenchmark.CANVAS_WIDTH_MM, CutterBenchmark.CANVAS_HEIGHT_MM)
+				.compile(ProgramGenerator.generate(commands));
+	}
+
+	@Benchmark
+	public String generate() {
+		GCodeGenerator generator = new GCodeGenerator(CutterBenchmark.CANVAS_WIDTH_MM, CutterBenchmark.CANVAS_HEIGHT_MM);
+		generator.setOptimizeTravel(optimizeTravel);
+		return generator.generate(displayList);
+	}
+}
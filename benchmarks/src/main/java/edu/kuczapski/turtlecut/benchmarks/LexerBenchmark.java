@@ -0,0 +1,52 @@
+package edu.kuczapski.turtlecut.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.kuczapski.turtlecut.scripting.TurtleLexer;
+
+/**
+ * Lexing a whole program with the generated lexer, as the parser does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+
+	@Param({"10", "1000", "100000", "1000000"})
+	public int commands;
+
+	private String program;
+
+	@Setup
+	public void setUp() {
+		program = ProgramGenerator.generate(commands);
+	}
+
+	@Benchmark
+	public int lex() {
+		TurtleLexer lexer = new TurtleLexer(CharStreams.fromString(program));
+		lexer.removeErrorListeners();
+		int count = 0;
+		while(lexer.nextToken().getType()!=Token.EOF) {
+			count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,64 @@
+package edu.kuczapski.turtlecut.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.kuczapski.turtlecut.scripting.FilteredTokenSource;
+import edu.kuczapski.turtlecut.scripting.TurtleCompiler;
+import edu.kuczapski.turtlecut.scripting.TurtleLexer;
+import edu.kuczapski.turtlecut.scripting.TurtleParser;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.ProgramContext;
+
+/**
+ * {@link TurtleParser#program()} over tokens lexed beforehand, and the whole
+ * {@link TurtleCompiler#parse(String)} the editor and the export use.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+	@Param({"10", "1000", "100000", "1000000"})
+	public int commands;
+
+	private String program;
+	private CommonTokenStream tokens;
+
+	@Setup
+	public void setUp() {
+		program = ProgramGenerator.generate(commands);
+		TurtleLexer lexer = new TurtleLexer(CharStreams.fromString(program));
+		lexer.removeErrorListeners();
+		tokens = new CommonTokenStream(new FilteredTokenSource(lexer));
+		tokens.fill();
+	}
+
+	//the parser seeks the token stream back to the start
+	@Benchmark
+	public ProgramContext program() {
+		TurtleParser parser = new TurtleParser(tokens);
+		parser.removeErrorListeners();
+		return parser.program();
+	}
+
+	@Benchmark
+	public ProgramContext lexAndParse() {
+		return TurtleCompiler.parse(program);
+	}
+}
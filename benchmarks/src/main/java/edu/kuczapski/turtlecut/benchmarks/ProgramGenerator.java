@@ -0,0 +1,89 @@
+package edu.kuczapski.turtlecut.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Synthetic programs of a given number of commands, the same for the same
+ * seed. They mix long chains of lines in one cut block, nested repeats,
+ * circles and moves, so every rule of the grammar is exercised. Each
+ * command, line and circle counts as one, the repeats always run twice so
+ * the nesting multiplies the drawn segments by at most 2^{@value #MAX_NESTING}.
+ */
+public final class ProgramGenerator {
+
+	public static final long DEFAULT_SEED = 0x5eed;
+
+	private static final int MAX_NESTING = 6;
+	private static final int MAX_CHAIN = 200;
+
+	private ProgramGenerator() {
+	}
+
+	public static String generate(int commands) {
+		return generate(commands, DEFAULT_SEED);
+	}
+
+	public static String generate(int commands, long seed) {
+		Random random = new Random(seed);
+		StringBuilder program = new StringBuilder(commands*32);
+		program.append("placaj cu latimea de 30 cm si cu inaltimea de 20 cm\n");
+
+		int remaining = commands;
+		while(remaining>0) {
+			int kind = remaining<3 ? 3 : random.nextInt(4);
+			switch(kind) {
+				case 0:
+					remaining -= appendChain(program, random, Math.min(MAX_CHAIN, remaining-1));
+					break;
+				case 1:
+					remaining -= appendNesting(program, random, Math.min(MAX_NESTING, remaining-2));
+					break;
+				case 2:
+					appendCircle(program, random);
+					remaining -= 3;
+					break;
+				default:
+					appendMove(program, random);
+					remaining -= 1;
+					break;
+			}
+		}
+		return program.toString();
+	}
+
+	//a cut block of lines, returns the commands written
+	private static int appendChain(StringBuilder program, Random random, int maxLines) {
+		int lines = 1 + random.nextInt(maxLines);
+		program.append("taie [\n");
+		for(int i=0;i<lines;i++) {
+			program.append("\tlinie spre ").append(random.nextInt(360)).append(" grade de ")
+				   .append(1 + random.nextInt(10)).append(" mm\n");
+		}
+		program.append("]\n");
+		return lines + 1;
+	}
+
+	//repeats nested around one drawn line, returns the commands written
+	private static int appendNesting(StringBuilder program, Random random, int maxDepth) {
+		int depth = 1 + random.nextInt(maxDepth);
+		for(int i=0;i<depth;i++) {
+			program.append("repeta 2 [ ");
+		}
+		program.append("deseneaza linie spre ").append(random.nextInt(360)).append(" grade de ")
+			   .append(1 + random.nextInt(5)).append(" mm");
+		for(int i=0;i<depth;i++) {
+			program.append(" ]");
+		}
+		program.append('\n');
+		return depth + 2;
+	}
+
+	private static void appendCircle(StringBuilder program, Random random) {
+		program.append("taie [ du-te la ").append(2 + random.nextInt(26)).append(',').append(2 + random.nextInt(16))
+			   .append(" cerc cu raza de ").append(1 + random.nextInt(9)).append(" mm ]\n");
+	}
+
+	private static void appendMove(StringBuilder program, Random random) {
+		program.append("du-te la ").append(1 + random.nextInt(28)).append(',').append(1 + random.nextInt(18)).append('\n');
+	}
+}
@@ -0,0 +1,81 @@
+package edu.kuczapski.turtlecut.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.text.Segment;
+
+import org.fife.ui.rsyntaxtextarea.Token;
+import org.fife.ui.rsyntaxtextarea.TokenTypes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.kuczapski.turtlecut.scripting.AntlrTokenMaker;
+
+/**
+ * Highlighting every line of a program, as the editor does when it is
+ * opened. {@link #getTokenList()} uses a new token maker, so no line is in
+ * its cache, {@link #getTokenListCached()} keeps one across invocations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenMakerBenchmark {
+
+	@Param({"10", "1000", "100000", "1000000"})
+	public int commands;
+
+	private char[] text;
+	private int[] lineStarts;
+	private AntlrTokenMaker cachedMaker;
+
+	@Setup
+	public void setUp() {
+		String program = ProgramGenerator.generate(commands);
+		text = program.toCharArray();
+		lineStarts = program.lines().mapToInt(String::length).toArray();
+		int start = 0;
+		for(int i=0;i<lineStarts.length;i++) {
+			int length = lineStarts[i];
+			lineStarts[i] = start;
+			start += length + 1;
+		}
+		cachedMaker = new AntlrTokenMaker();
+	}
+
+	@Benchmark
+	public int getTokenList() {
+		return tokenize(new AntlrTokenMaker());
+	}
+
+	@Benchmark
+	public int getTokenListCached() {
+		return tokenize(cachedMaker);
+	}
+
+	private int tokenize(AntlrTokenMaker maker) {
+		Segment line = new Segment();
+		int count = 0;
+		for(int i=0;i<lineStarts.length;i++) {
+			int end = i+1<lineStarts.length ? lineStarts[i+1]-1 : text.length;
+			line.array = text;
+			line.offset = lineStarts[i];
+			line.count = end - lineStarts[i];
+			for(Token token = maker.getTokenList(line, TokenTypes.NULL, lineStarts[i]); token!=null && token.isPaintable(); token = token.getNextToken()) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,47 @@
+package edu.kuczapski.turtlecut;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes files through a temporary file in the same folder, renamed over
+ * the target, so readers and a crash see either the old or the new content.
+ */
+final class AtomicFiles {
+
+	private AtomicFiles() {
+	}
+
+	/**
+	 * Replaces the content of the target, creating its folder if needed.
+	 * With sync the content is forced to the disk before the rename, so it
+	 * also survives a power loss.
+	 */
+	static void write(Path target, ByteBuffer content, boolean sync) throws IOException {
+		Path folder = target.toAbsolutePath().getParent();
+		Files.createDirectories(folder);
+		Path temp = Files.createTempFile(folder, target.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				while(content.hasRemaining()) {
+					channel.write(content);
+				}
+				if(sync) channel.force(true);
+			}
+			//a rename within a file system replaces the target at once
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package edu.kuczapski.turtlecut;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import edu.kuczapski.turtlecut.scripting.Sha256;
+
+/**
+ * Versions of the saved files, kept under data/ instead of next to them.
+ * A file is split into chunks at positions chosen by its content, so an
+ * edit only changes the chunks around it. Each chunk is stored once, named
+ * by its SHA-256, and each file has a log of its versions as lists of
+ * chunks. A version with the content of the previous one is not added, and
+ * only the newest versions of a file are kept.
+ */
+public class BackupStore {
+
+	public static final int DEFAULT_MAX_VERSIONS = 50;
+
+	//chunk boundaries where the rolling hash has its low bits clear, about 8 KB apart
+	private static final int MIN_CHUNK_SIZE = 2*1024;
+	private static final int MAX_CHUNK_SIZE = 64*1024;
+	private static final long BOUNDARY_MASK = (1<<13) - 1;
+	private static final long[] GEAR = new long[256];
+
+	static {
+		//fixed seed, the boundaries must not change between runs
+		Random random = new Random(0x7475727467L);
+		for(int i=0;i<GEAR.length;i++) {
+			GEAR[i] = random.nextLong();
+		}
+	}
+
+	/**
+	 * One saved version of a file.
+	 */
+	public static final class Version{
+		public final long savedMillis;
+		//size and modification time of the file as written, to tell whether it changed since
+		public final long size;
+		public final long lastModifiedMillis;
+		public final String hash;
+		private final List<String> chunks;
+
+		private Version(long savedMillis, long size, long lastModifiedMillis, String hash, List<String> chunks) {
+			this.savedMillis = savedMillis;
+			this.size = size;
+			this.lastModifiedMillis = lastModifiedMillis;
+			this.hash = hash;
+			this.chunks = chunks;
+		}
+
+		private String toLine() {
+			return savedMillis + " " + size + " " + lastModifiedMillis + " " + hash + " " + String.join(",", chunks);
+		}
+
+		private static Version parse(String line) {
+			String[] fields = line.split(" ");
+			List<String> chunks = fields.length>4 && !fields[4].isEmpty() ? Arrays.asList(fields[4].split(",")) : Collections.emptyList();
+			return new Version(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3], chunks);
+		}
+	}
+
+	private final Path chunksFolder;
+	private final Path versionsFolder;
+	private int maxVersions = DEFAULT_MAX_VERSIONS;
+
+	public BackupStore(Path folder) {
+		this.chunksFolder = folder.resolve("chunks");
+		this.versionsFolder = folder.resolve("versions");
+	}
+
+	public static String hash(byte[] content) {
+		return Sha256.hex(content, 0, content.length);
+	}
+
+	/**
+	 * Whether the file on disk is still the latest version added, judged by
+	 * its size and modification time, without reading it.
+	 */
+	public synchronized boolean isLatestVersion(Path file) throws IOException {
+		Version latest = getLatestVersion(file);
+		if(latest==null || !Files.exists(file)) return false;
+		return Files.size(file)==latest.size && Files.getLastModifiedTime(file).toMillis()==latest.lastModifiedMillis;
+	}
+
+	/**
+	 * Adds the content of the file as its newest version, unless it is the
+	 * content of the latest one. The file is expected to hold the content,
+	 * its size and modification time are recorded.
+	 *
+	 * @return whether a version was added
+	 */
+	public synchronized boolean addVersion(Path file, byte[] content) throws IOException {
+		String hash = hash(content);
+		long size = Files.exists(file) ? Files.size(file) : content.length;
+		long lastModified = Files.exists(file) ? Files.getLastModifiedTime(file).toMillis() : 0;
+
+		List<Version> versions = readVersions(file);
+		Version latest = versions.isEmpty() ? null : versions.get(versions.size()-1);
+		if(latest!=null && latest.hash.equals(hash)) {
+			//same content, only the file attributes are refreshed
+			versions.set(versions.size()-1, new Version(latest.savedMillis, size, lastModified, hash, latest.chunks));
+			writeVersions(file, versions);
+			return false;
+		}
+
+		List<String> chunks = new ArrayList<>();
+		int start = 0;
+		while(start<content.length) {
+			int end = nextBoundary(content, start);
+			String chunk = Sha256.hex(content, start, end);
+			Path chunkFile = getChunkFile(chunk);
+			if(!Files.exists(chunkFile)) {
+				AtomicFiles.write(chunkFile, ByteBuffer.wrap(content, start, end-start), false);
+			}
+			chunks.add(chunk);
+			start = end;
+		}
+		versions.add(new Version(System.currentTimeMillis(), size, lastModified, hash, chunks));
+
+		boolean pruned = false;
+		if(versions.size()>maxVersions) {
+			versions = new ArrayList<>(versions.subList(versions.size()-maxVersions, versions.size()));
+			pruned = true;
+		}
+		writeVersions(file, versions);
+		if(pruned) removeUnusedChunks();
+		return true;
+	}
+
+	/**
+	 * Versions of the file, oldest first.
+	 */
+	public synchronized List<Version> getVersions(Path file) throws IOException {
+		return Collections.unmodifiableList(readVersions(file));
+	}
+
+	public synchronized Version getLatestVersion(Path file) throws IOException {
+		List<Version> versions = readVersions(file);
+		return versions.isEmpty() ? null : versions.get(versions.size()-1);
+	}
+
+	public synchronized byte[] restore(Version version) throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream((int) version.size);
+		for(String chunk : version.chunks) {
+			content.write(Files.readAllBytes(getChunkFile(chunk)));
+		}
+		byte[] bytes = content.toByteArray();
+		if(!hash(bytes).equals(version.hash)) throw new IOException("backup of "+version.hash+" is damaged");
+		return bytes;
+	}
+
+	/**
+	 * Number of versions kept per file, {@value #DEFAULT_MAX_VERSIONS} by
+	 * default. The chunks used only by older versions are deleted.
+	 */
+	public void setMaxVersions(int maxVersions) {
+		this.maxVersions = maxVersions;
+	}
+
+	//the chunk ends at the first boundary after the minimum size, or at the maximum size
+	private static int nextBoundary(byte[] content, int start) {
+		int end = Math.min(content.length, start+MAX_CHUNK_SIZE);
+		long rolling = 0;
+		for(int i=start;i<end;i++) {
+			rolling = (rolling<<1) + GEAR[content[i] & 0xff];
+			if(i-start+1>=MIN_CHUNK_SIZE && (rolling & BOUNDARY_MASK)==0) return i+1;
+		}
+		return end;
+	}
+
+	private List<Version> readVersions(Path file) throws IOException {
+		Path log = getLogFile(file);
+		List<Version> versions = new ArrayList<>();
+		if(!Files.exists(log)) return versions;
+		for(String line : Files.readAllLines(log, StandardCharsets.UTF_8)) {
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			versions.add(Version.parse(line));
+		}
+		return versions;
+	}
+
+	private void writeVersions(Path file, List<Version> versions) throws IOException {
+		StringBuilder log = new StringBuilder();
+		log.append("# ").append(file.toAbsolutePath()).append('\n');
+		for(Version version : versions) {
+			log.append(version.toLine()).append('\n');
+		}
+		AtomicFiles.write(getLogFile(file), ByteBuffer.wrap(log.toString().getBytes(StandardCharsets.UTF_8)), false);
+	}
+
+	private void removeUnusedChunks() throws IOException {
+		if(!Files.isDirectory(versionsFolder) || !Files.isDirectory(chunksFolder)) return;
+		Set<String> used = new HashSet<>();
+		try (DirectoryStream<Path> logs = Files.newDirectoryStream(versionsFolder, "*.log")) {
+			for(Path log : logs) {
+				for(String line : Files.readAllLines(log, StandardCharsets.UTF_8)) {
+					if(line.isEmpty() || line.startsWith("#")) continue;
+					used.addAll(Version.parse(line).chunks);
+				}
+			}
+		}
+		try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(chunksFolder)) {
+			for(Path prefix : prefixes) {
+				try (DirectoryStream<Path> chunks = Files.newDirectoryStream(prefix)) {
+					for(Path chunk : chunks) {
+						if(!used.contains(chunk.getFileName().toString())) Files.deleteIfExists(chunk);
+					}
+				}
+			}
+		}
+	}
+
+	//chunks are spread over folders by the first two digits of their hash
+	private Path getChunkFile(String hash) {
+		return chunksFolder.resolve(hash.substring(0, 2)).resolve(hash);
+	}
+
+	private Path getLogFile(Path file) {
+		String path = file.toAbsolutePath().normalize().toString();
+		return versionsFolder.resolve(hash(path.getBytes(StandardCharsets.UTF_8)).substring(0, 32) + ".log");
+	}
+}
@@ -0,0 +1,252 @@
+package edu.kuczapski.turtlecut;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+
+import edu.kuczapski.turtlecut.scripting.DisplayList;
+import edu.kuczapski.turtlecut.scripting.GCodeGenerator;
+import edu.kuczapski.turtlecut.scripting.TurtleCompiler;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.ProgramContext;
+
+/**
+ * Command line compiler turning .cut files into .gcode files without the
+ * GUI. Files are compiled in parallel on a fork-join pool, only the
+ * compiler and the G-code generator are used, so no display is needed.
+ * <pre>
+ * BatchCompiler [options] &lt;directory|file|glob&gt;...
+ *   -o &lt;dir&gt;            write the G-code there instead of next to the sources
+ *   -t &lt;threads&gt;        size of the pool, all processors by default
+ *   --canvas &lt;W&gt;x&lt;H&gt;   machine size in mm, 400x400 by default
+ *   --optimize-travel   reorder the cuts to shorten travel
+ *   --no-inside-out     keep contours in program order
+ *   --keep-duplicates   burn overlapping segments as many times as drawn
+ * </pre>
+ * Directories are searched recursively for .cut files. The exit code is 1
+ * when any file failed.
+ */
+public class BatchCompiler {
+
+	private static final String SOURCE_EXTENSION = ".cut";
+	private static final String GCODE_EXTENSION = ".gcode";
+
+	private double canvasWidthMM = 400;
+	private double canvasHeightMM = 400;
+	private boolean optimizeTravel = false;
+	private boolean insideOut = true;
+	private boolean removeDuplicates = true;
+	private Path outputDirectory = null;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private static class Result{
+		final Path source;
+		Path target;
+		String error;
+		int segments;
+		long parseNanos;
+		long compileNanos;
+		long generateNanos;
+
+		Result(Path source) {
+			this.source = source;
+		}
+
+		long getTotalNanos() {
+			return parseNanos + compileNanos + generateNanos;
+		}
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		BatchCompiler compiler = new BatchCompiler();
+		List<String> inputs = new ArrayList<>();
+		try {
+			for(int i=0;i<args.length;i++) {
+				switch (args[i]) {
+				case "-o":
+					compiler.outputDirectory = Paths.get(args[++i]);
+					break;
+				case "-t":
+					compiler.threads = Integer.parseInt(args[++i]);
+					break;
+				case "--canvas":
+					String[] size = args[++i].toLowerCase().split("x");
+					compiler.canvasWidthMM = Double.parseDouble(size[0]);
+					compiler.canvasHeightMM = Double.parseDouble(size[1]);
+					break;
+				case "--optimize-travel":
+					compiler.optimizeTravel = true;
+					break;
+				case "--no-inside-out":
+					compiler.insideOut = false;
+					break;
+				case "--keep-duplicates":
+					compiler.removeDuplicates = false;
+					break;
+				default:
+					inputs.add(args[i]);
+				}
+			}
+		}catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			inputs.clear();
+		}
+
+		if(inputs.isEmpty() || compiler.threads<1) {
+			System.err.println("Usage: BatchCompiler [-o <dir>] [-t <threads>] [--canvas <W>x<H>] [--optimize-travel] [--no-inside-out] [--keep-duplicates] <directory|file|glob>...");
+			System.exit(2);
+		}
+
+		try {
+			List<Path> sources = new ArrayList<>();
+			for(String input : inputs) {
+				sources.addAll(findSources(input));
+			}
+			System.exit(compiler.run(sources) ? 0 : 1);
+		} catch (IOException | InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+			System.exit(2);
+		}
+	}
+
+	/**
+	 * Compiles all the sources and prints a line per file and the totals.
+	 * Returns false if any of them failed.
+	 */
+	public boolean run(List<Path> sources) throws IOException, InterruptedException, ExecutionException {
+		if(outputDirectory!=null) Files.createDirectories(outputDirectory);
+
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		List<Result> results;
+		try {
+			//a parallel stream started from inside the pool runs its tasks on that pool
+			results = pool.submit(()->sources.parallelStream().map(this::compile).collect(Collectors.toList())).get();
+		}finally {
+			pool.shutdown();
+		}
+		long wallNanos = System.nanoTime() - start;
+
+		int failed = 0;
+		long cpuNanos = 0;
+		for(Result result : results) {
+			cpuNanos += result.getTotalNanos();
+			if(result.error==null) {
+				System.out.printf("OK    %8.1f ms  %s -> %s (%d segments; parse %.1f ms, compile %.1f ms, G-code %.1f ms)%n",
+						millis(result.getTotalNanos()), result.source, result.target, result.segments,
+						millis(result.parseNanos), millis(result.compileNanos), millis(result.generateNanos));
+			}else {
+				failed++;
+				System.out.printf("FAIL  %8.1f ms  %s: %s%n", millis(result.getTotalNanos()), result.source, result.error);
+			}
+		}
+		System.out.printf("%d files, %d compiled, %d failed in %.1f ms (%.1f ms of work on %d threads)%n",
+				results.size(), results.size()-failed, failed, millis(wallNanos), millis(cpuNanos), threads);
+		return failed==0;
+	}
+
+	private Result compile(Path source) {
+		Result result = new Result(source);
+		try {
+			String program = new String(Files.readAllBytes(source), StandardCharsets.UTF_8);
+
+			long time = System.nanoTime();
+			List<String> syntaxErrors = new ArrayList<>();
+			ProgramContext tree = TurtleCompiler.parse(program, new BaseErrorListener() {
+				@Override
+				public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+						int charPositionInLine, String msg, RecognitionException e) {
+					syntaxErrors.add("line " + line + ":" + charPositionInLine + " " + msg);
+				}
+			});
+			result.parseNanos = System.nanoTime() - time;
+			if(!syntaxErrors.isEmpty()) {
+				result.error = String.join("; ", syntaxErrors);
+				return result;
+			}
+
+			time = System.nanoTime();
+			DisplayList displayList = new TurtleCompiler(canvasWidthMM, canvasHeightMM).compile(tree);
+			result.compileNanos = System.nanoTime() - time;
+			result.segments = displayList.getSegmentCount();
+
+			time = System.nanoTime();
+			GCodeGenerator generator = new GCodeGenerator(canvasWidthMM, canvasHeightMM);
+			generator.setOptimizeTravel(optimizeTravel);
+			generator.setInsideOut(insideOut);
+			generator.setRemoveDuplicates(removeDuplicates);
+			result.target = getTarget(source);
+			try(Writer writer = Files.newBufferedWriter(result.target, StandardCharsets.US_ASCII)) {
+				generator.write(displayList, writer);
+			}
+			result.generateNanos = System.nanoTime() - time;
+		}catch (IOException | RuntimeException e) {
+			result.error = e.toString();
+		}
+		return result;
+	}
+
+	private Path getTarget(Path source) {
+		String name = source.getFileName().toString();
+		if(name.toLowerCase().endsWith(SOURCE_EXTENSION)) {
+			name = name.substring(0, name.length()-SOURCE_EXTENSION.length());
+		}
+		Path directory = outputDirectory!=null ? outputDirectory : source.toAbsolutePath().getParent();
+		return directory.resolve(name + GCODE_EXTENSION);
+	}
+
+	/**
+	 * A directory gives all the .cut files under it, a glob such as
+	 * {@code jobs/**.cut} the files matching it, anything else is taken as a file.
+	 */
+	static List<Path> findSources(String input) throws IOException {
+		int wildcard = -1;
+		for(int i=0;i<input.length() && wildcard<0;i++) {
+			if("*?[{".indexOf(input.charAt(i))>=0) wildcard = i;
+		}
+
+		if(wildcard<0) {
+			Path path = Paths.get(input);
+			if(!Files.isDirectory(path)) return List.of(path);
+			try(Stream<Path> files = Files.walk(path)) {
+				return files.filter(Files::isRegularFile)
+						.filter(file->file.getFileName().toString().toLowerCase().endsWith(SOURCE_EXTENSION))
+						.sorted()
+						.collect(Collectors.toList());
+			}
+		}
+
+		//walk from the directory part before the first wildcard
+		int separator = Math.max(input.lastIndexOf('/', wildcard), input.lastIndexOf(File.separatorChar, wildcard));
+		boolean relative = separator<0;
+		Path base = relative ? Paths.get(".") : Paths.get(input.substring(0, separator+1));
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + input);
+		try(Stream<Path> files = Files.walk(base)) {
+			return files.filter(Files::isRegularFile)
+					.map(file->relative ? base.relativize(file) : file)
+					.filter(matcher::matches)
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	private static double millis(long nanos) {
+		return nanos/1e6;
+	}
+}
@@ -6,6 +6,9 @@ import com.formdev.flatlaf.FlatDarculaLaf;
 import com.formdev.flatlaf.FlatDarkLaf;
 import com.formdev.flatlaf.FlatLaf;
 
+import edu.kuczapski.turtlecut.profiling.PipelineRecording;
+import edu.kuczapski.turtlecut.scripting.TurtleCompiler;
+
 public class Main {
     public static void main(String[] args) {
     	FlatLaf.registerCustomDefaultsSource( "com.amorph.sense.peopletracker.unit" );
@@ -13,6 +16,13 @@ public class Main {
 		FlatDarkLaf flat = new FlatDarculaLaf();
 		FlatLaf.setup(flat);
 		
+		PipelineRecording.startIfRequested();
+		
+		//builds the lexer and parser DFA while the window is being created
+		Thread warmUp = new Thread(TurtleCompiler::warmUp, "parser-warm-up");
+		warmUp.setDaemon(true);
+		warmUp.start();
+		
         SwingUtilities.invokeLater(() -> {
             new MainWindow();
         });
@@ -4,21 +4,41 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
 import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
 import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
+import java.io.Reader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JMenu;
@@ -28,7 +48,10 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JSplitPane;
 import javax.swing.JToolBar;
+import javax.swing.ProgressMonitor;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.UIManager;
 import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
@@ -36,7 +59,6 @@ import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
-import org.apache.commons.io.FileUtils;
 import org.fife.ui.autocomplete.AutoCompletion;
 import org.fife.ui.autocomplete.BasicCompletion;
 import org.fife.ui.autocomplete.CompletionProvider;
@@ -47,9 +69,21 @@ import org.fife.ui.rsyntaxtextarea.Token;
 import org.fife.ui.rsyntaxtextarea.TokenMakerFactory;
 import org.fife.ui.rtextarea.RTextScrollPane;
 
+import edu.kuczapski.turtlecut.grbl.GrblConnection;
+import edu.kuczapski.turtlecut.grbl.GrblSender;
+import edu.kuczapski.turtlecut.grbl.GrblSimulator;
+import edu.kuczapski.turtlecut.grbl.GrblStatus;
+import edu.kuczapski.turtlecut.grbl.SocketGrblConnection;
 import edu.kuczapski.turtlecut.scripting.AntlrTokenMaker;
+import edu.kuczapski.turtlecut.profiling.CanvasPaintEvent;
+import edu.kuczapski.turtlecut.profiling.JobContext;
+import edu.kuczapski.turtlecut.scripting.CanvasUpdate;
 import edu.kuczapski.turtlecut.scripting.Cutter;
-import edu.kuczapski.turtlecut.scripting.RenderingThread;
+import edu.kuczapski.turtlecut.scripting.DisplayList;
+import edu.kuczapski.turtlecut.scripting.GCodeExport;
+import edu.kuczapski.turtlecut.scripting.GCodeGenerator;
+import edu.kuczapski.turtlecut.scripting.HighlightOverlay;
+import edu.kuczapski.turtlecut.scripting.RenderScheduler;
 import edu.kuczapski.turtlecut.scripting.TurtleParser;
 
 public class MainWindow extends JFrame {
@@ -64,19 +98,50 @@ public class MainWindow extends JFrame {
     private JPanel canvas;
     private final PersistedDataObject<File> currentFile = new PersistedDataObject<>(YOUR_APPLICATION_NAME, File::getAbsolutePath, File::new); // To store the currently loaded file
     private final PersistedDataObject<String> lastDirectory = new PersistedDataObject<>("last-folder", e->e, e->e) ; // To store the last selected directory
+    private final PersistedDataObject<String> lastGrblAddress = new PersistedDataObject<>("last-grbl-address", e->e, e->e) ; // To store the last GRBL host:port
+    //earlier versions of the saved files
+    private final BackupStore backupStore = new BackupStore(Paths.get("data", "backups"));
     private final PersistedDataObject<String> lastEditedProgram = new PersistedDataObject<>("last-edited-program", e->e, e->e) ; // To store the last selected directory
     
     private BufferedImage currentCutImage = null; 
     private double currentCutImagePixelSizeMM = 0.1;
     private double currentCutImageBorderSizeMM = 0.1;
     private double currentCanvasHeightMM = 0.1;
+    private DisplayList currentDisplayList = null;
+    private double currentTurtleX;
+    private double currentTurtleY;
+    private double currentTurtleAngle;
+    private HighlightOverlay currentHighlight = null;
+    
+    private Image scaledCutImage = null;
+    private BufferedImage scaledCutImageSource = null;
+    private int scaledCutImageWidth;
+    private int scaledCutImageHeight;
+    //job of the last update applied to the image
+    private long currentCutImageJobId = 0;
     
     private Cutter cutter = new Cutter(400,400, 0.25);
     {
     	cutter.setDrawingListener(this::onNewCanvasImage);
     }
 
-    private RenderingThread renderingThread = new RenderingThread();
+    private RenderScheduler renderScheduler = new RenderScheduler();
+    
+    private JCheckBox optimizeTravelCheckBox = new JCheckBox("Optimize travel");
+    private JCheckBox insideOutCheckBox = new JCheckBox("Inside-out", true);
+    private JCheckBox removeDuplicatesCheckBox = new JCheckBox("Merge duplicates", true);
+    
+    //simulated jobs run faster than the machine would
+    private static final double SIMULATOR_TIME_SCALE = 4;
+    private static final double GRBL_MARKER_RADIUS = 6;
+    //the progress dialog only shows up for exports that take longer
+    private static final int EXPORT_PROGRESS_POPUP_MS = 300;
+    private static final int EXPORT_CANCEL_POLL_MS = 100;
+    
+    private GrblSender grblSender = null;
+    private volatile GrblStatus grblStatus = null;
+    private double grblOffsetXMM;
+    private double grblOffsetYMM;
 
 	private double drawScale;
 
@@ -139,11 +204,19 @@ public class MainWindow extends JFrame {
 				exportGCode();
 			}
 		};
+		
+		Action sendToGrblAction = new AbstractAction("Send to GRBL", new ImageIcon("turtle-small.png")) {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				sendToGrbl();
+			}
+		};
 
         JMenuItem newItem = new JMenuItem(newAction);
         JMenuItem openItem = new JMenuItem(openAction);
         JMenuItem saveItem = new JMenuItem(saveAction);
         JMenuItem saveAsItem = new JMenuItem(saveAsAction);
+        JMenuItem restoreItem = new JMenuItem("Restore Version...");
         JMenuItem exitItem = new JMenuItem("Exit");
 
         newItem.addActionListener(new ActionListener() {
@@ -160,6 +233,13 @@ public class MainWindow extends JFrame {
             }
         });
 
+        restoreItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                restoreVersion();
+            }
+        });
+
         exitItem.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
@@ -171,6 +251,7 @@ public class MainWindow extends JFrame {
         fileMenu.add(openItem);
         fileMenu.add(saveItem);
         fileMenu.add(saveAsItem);
+        fileMenu.add(restoreItem);
         fileMenu.addSeparator();
         fileMenu.add(exitItem);
 
@@ -213,7 +294,15 @@ public class MainWindow extends JFrame {
         toolBar.add(saveButton);
         toolBar.add(saveAsButton);
         toolBar.add(playButton);
+        toolBar.add(createPlaybackSpeedSelector());
         toolBar.add(exoprtGCodeButton);
+        optimizeTravelCheckBox.setToolTipText("Reorder cuts on export to shorten the moves between them, engraving first");
+        toolBar.add(optimizeTravelCheckBox);
+        insideOutCheckBox.setToolTipText("Cut everything inside a closed contour before the contour itself");
+        toolBar.add(insideOutCheckBox);
+        removeDuplicatesCheckBox.setToolTipText("Burn overlapping segments, such as the common edge of touching parts, only once");
+        toolBar.add(removeDuplicatesCheckBox);
+        toolBar.add(new JButton(sendToGrblAction));
 
         
         
@@ -281,7 +370,7 @@ public class MainWindow extends JFrame {
         ac.install(textEditor);
         
         
-        cutter.execute("", 0, 0);
+        cutter.execute("", 0);
         
         textEditor.getDocument().addDocumentListener(new DocumentListener() {
 
@@ -295,13 +384,13 @@ public class MainWindow extends JFrame {
     	   public void changedUpdate(DocumentEvent e) {
     		String program = textEditor.getText();
     		lastEditedProgram.set(program);
-			renderingThread.requestJob(cutter, program , 0.0, textEditor.getCaretLineNumber()+1);
+			renderScheduler.request(RenderScheduler.Trigger.EDIT, cutter, program, 0.0);
     	   }
        });
        textEditor.addCaretListener(new CaretListener() {
 			@Override
 			public void caretUpdate(CaretEvent e) {
-				renderingThread.requestJob(cutter, textEditor.getText() , 0.0, textEditor.getCaretLineNumber()+1);
+				updateHighlight();
 			}
 	    });
         
@@ -316,8 +405,27 @@ public class MainWindow extends JFrame {
 		addMouseHint();
     }
 
+	private JComboBox<String> createPlaybackSpeedSelector() {
+		String[] speeds = {"1x", "2x", "4x", "8x", "16x"};
+		JComboBox<String> selector = new JComboBox<>(speeds);
+		selector.setToolTipText("Playback speed");
+		selector.setMaximumSize(selector.getPreferredSize());
+		selector.addActionListener(e->{
+			String speed = (String) selector.getSelectedItem();
+			cutter.setPlaybackSpeed(Double.parseDouble(speed.substring(0, speed.length()-1)));
+		});
+		return selector;
+	}
+
 	protected void play() {
-		renderingThread.requestJob(cutter, textEditor.getText() , DEFAULT_CUTTING_SPEED , textEditor.getCaretLineNumber()+1);
+		renderScheduler.request(RenderScheduler.Trigger.PLAY, cutter, textEditor.getText(), DEFAULT_CUTTING_SPEED);
+	}
+	
+	//rebuilds only the highlight of the caret line from the last compiled program, the rendered image is left as is
+	private void updateHighlight() {
+		HighlightOverlay highlight = HighlightOverlay.create(currentDisplayList, textEditor.getCaretLineNumber()+1, currentCutImagePixelSizeMM, currentCutImageBorderSizeMM);
+		this.currentHighlight = highlight;
+		canvas.repaint();
 	}
 
 	protected void exportGCode() {
@@ -350,11 +458,159 @@ public class MainWindow extends JFrame {
 			lastDirectory.set(currentFile.get().getParent()); // Store the last selected directory
 			setTitle(YOUR_APPLICATION_NAME + " - " + currentFile.get().getName()); // Update window title
 
-			try (BufferedWriter writer = new BufferedWriter(new FileWriter(currentFile.get()))) {
-				writer.write(cutter.generateGCode(textEditor.getText()));
-			} catch (IOException e) {
-				e.printStackTrace();
+			exportInBackground(cutter.createExport(textEditor.getText(), createGCodeGenerator()), currentFile.get(), ()->{});
+		}
+	}
+	
+	/**
+	 * Writes the G-code on a background thread while the preview keeps
+	 * rendering, with a progress dialog that can cancel it. The program goes
+	 * to a temporary file next to the target that replaces it once complete,
+	 * so a cancelled or failed export leaves the target as it was. onDone runs
+	 * on the EDT after a complete export.
+	 */
+	private void exportInBackground(GCodeExport export, File file, Runnable onDone) {
+		ProgressMonitor monitor = new ProgressMonitor(this, "Exporting "+file.getName(), null, 0, 100);
+		monitor.setMillisToDecideToPopup(EXPORT_PROGRESS_POPUP_MS);
+		
+		SwingWorker<Void, Void> worker = new SwingWorker<>() {
+			@Override
+			protected Void doInBackground() throws IOException {
+				export.setProgressListener(fraction->setProgress((int) Math.max(0, Math.min(100, fraction*100))));
+				File partFile = new File(file.getAbsolutePath()+".part");
+				try {
+					//the generator buffers its output, no need for a BufferedWriter
+					try (FileWriter writer = new FileWriter(partFile)) {
+						export.writeTo(writer);
+					}
+					Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}finally {
+					partFile.delete();
+				}
+				return null;
+			}
+			
+			@Override
+			protected void done() {
+				monitor.close();
+				try {
+					get();
+					onDone.run();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					if(e.getCause() instanceof CancellationException) return;
+					e.printStackTrace();
+					JOptionPane.showMessageDialog(MainWindow.this, String.valueOf(e.getCause().getMessage()), "Export GCode", JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		};
+		worker.addPropertyChangeListener(event->{
+			if("progress".equals(event.getPropertyName())) {
+				monitor.setProgress((Integer) event.getNewValue());
+			}
+		});
+		
+		//the monitor has no listener for its cancel button, it is polled
+		Timer cancelPoller = new Timer(EXPORT_CANCEL_POLL_MS, null);
+		cancelPoller.addActionListener(event->{
+			if(worker.isDone()) {
+				cancelPoller.stop();
+			}else if(monitor.isCanceled()) {
+				export.cancel();
+				cancelPoller.stop();
+			}
+		});
+		cancelPoller.start();
+		worker.execute();
+	}
+	
+	private GCodeGenerator createGCodeGenerator() {
+		GCodeGenerator generator = cutter.createGCodeGenerator();
+		generator.setOptimizeTravel(optimizeTravelCheckBox.isSelected());
+		generator.setInsideOut(insideOutCheckBox.isSelected());
+		generator.setRemoveDuplicates(removeDuplicatesCheckBox.isSelected());
+		return generator;
+	}
+	
+	//streams the program to a GRBL controller, or stops the running job
+	protected void sendToGrbl() {
+		if(grblSender!=null && grblSender.isRunning()) {
+			if(JOptionPane.showConfirmDialog(this, "Stop the running job?", "GRBL", JOptionPane.YES_NO_OPTION)==JOptionPane.YES_OPTION) {
+				grblSender.stop();
 			}
+			return;
+		}
+		
+		String address = (String) JOptionPane.showInputDialog(this, "GRBL address (host:port), leave empty for the simulator",
+				"Send to GRBL", JOptionPane.QUESTION_MESSAGE, null, null, lastGrblAddress.get());
+		if(address==null) return;
+		address = address.trim();
+		lastGrblAddress.set(address.isEmpty() ? null : address);
+		
+		//the job is written to a temporary file first, the sender only reads it line by line
+		File gcodeFile;
+		try {
+			gcodeFile = File.createTempFile("turtle-cut", ".gcode");
+		} catch (IOException e) {
+			e.printStackTrace();
+			JOptionPane.showMessageDialog(this, e.getMessage(), "GRBL", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		gcodeFile.deleteOnExit();
+		GCodeGenerator generator = createGCodeGenerator();
+		String grblAddress = address;
+		exportInBackground(cutter.createExport(textEditor.getText(), generator), gcodeFile, ()->{
+			grblOffsetXMM = generator.getXOffsetMM();
+			grblOffsetYMM = generator.getYOffsetMM();
+			startGrblJob(grblAddress, gcodeFile);
+		});
+	}
+	
+	private void startGrblJob(String address, File gcodeFile) {
+		GrblConnection connection = null;
+		try {
+			connection = address.isEmpty() ? new GrblSimulator(SIMULATOR_TIME_SCALE) : SocketGrblConnection.connect(address);
+			GrblConnection jobConnection = connection;
+			File jobFile = gcodeFile;
+			grblSender = new GrblSender(connection, new GrblSender.Listener() {
+				@Override
+				public void onStatus(GrblStatus status) {
+					grblStatus = status;
+					canvas.repaint();
+				}
+				
+				@Override
+				public void onError(String line, String error) {
+					SwingUtilities.invokeLater(()->JOptionPane.showMessageDialog(MainWindow.this,
+							line==null ? error : error+" at "+line, "GRBL", JOptionPane.ERROR_MESSAGE));
+				}
+				
+				@Override
+				public void onFinished(boolean completed) {
+					try {
+						jobConnection.close();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+					jobFile.delete();
+					grblStatus = null;
+					canvas.repaint();
+				}
+			});
+			Reader program = new FileReader(gcodeFile);
+			grblSender.start(program);
+		} catch (IOException e) {
+			e.printStackTrace();
+			JOptionPane.showMessageDialog(this, e.getMessage(), "GRBL", JOptionPane.ERROR_MESSAGE);
+			if(connection!=null) {
+				try {
+					connection.close();
+				} catch (IOException ex) {
+					ex.printStackTrace();
+				}
+			}
+			gcodeFile.delete();
 		}
 	}
 	
@@ -390,32 +646,72 @@ public class MainWindow extends JFrame {
         }
     }
 
+    //the earlier contents go to the backup store, a file still holding what is in the editor is not written again
     private void saveToFile(File file) {
-    	String bakFileName = null;
-    	if(file.exists()) {    		
-    		bakFileName = file.getAbsolutePath()+"."+System.currentTimeMillis()+".bak";
-			File backupFile = new File(bakFileName);
-    		try {
-    			org.apache.commons.io.FileUtils.copyFile(file, backupFile);              
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-    	}
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
-            textEditor.write(writer);
+        StringWriter text = new StringWriter();
+        try {
+            textEditor.write(text);
         } catch (IOException e) {
             e.printStackTrace();
+            return;
         }
+        byte[] content = text.toString().getBytes(Charset.defaultCharset());
+        Path path = file.toPath();
         
-        //compare back and new file content	
         try {
-			if(bakFileName!=null && FileUtils.contentEquals(new File(bakFileName), file)) {
-				FileUtils.delete(new File(bakFileName));
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+            BackupStore.Version latest = backupStore.getLatestVersion(path);
+            boolean fileIsLatest = backupStore.isLatestVersion(path);
+            if(fileIsLatest && latest.hash.equals(BackupStore.hash(content))) return;
+            
+            //changed outside of the editor since the last save, kept before being overwritten
+            if(file.exists() && !fileIsLatest) {
+                backupStore.addVersion(path, Files.readAllBytes(path));
+            }
+            Files.write(path, content);
+            backupStore.addVersion(path, content);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    //replaces the text of the editor by a saved version of the current file, undoable like an edit
+    private void restoreVersion() {
+        if(currentFile.get()==null) {
+            JOptionPane.showMessageDialog(this, "Save the program first, versions are kept for saved files.", "Restore Version", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
         
+        List<BackupStore.Version> versions;
+        try {
+            versions = new ArrayList<>(backupStore.getVersions(currentFile.get().toPath()));
+        } catch (IOException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Restore Version", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if(versions.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No saved versions of "+currentFile.get().getName()+".", "Restore Version", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        Collections.reverse(versions);
+        
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        String[] labels = new String[versions.size()];
+        for(int i=0;i<labels.length;i++) {
+            labels[i] = format.format(new Date(versions.get(i).savedMillis)) + "  (" + versions.get(i).size + " bytes)";
+        }
+        Object selected = JOptionPane.showInputDialog(this, "Version of "+currentFile.get().getName(), "Restore Version",
+                JOptionPane.QUESTION_MESSAGE, null, labels, labels[0]);
+        if(selected==null) return;
+        
+        BackupStore.Version version = versions.get(Arrays.asList(labels).indexOf(selected));
+        try {
+            String restored = new String(backupStore.restore(version), Charset.defaultCharset());
+            textEditor.setText(restored.replace("\r\n", "\n"));
+        } catch (IOException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Restore Version", JOptionPane.ERROR_MESSAGE);
+        }
     }
 
     private void saveFileAs() {
@@ -469,15 +765,33 @@ public class MainWindow extends JFrame {
 
      }
 
-	private void onNewCanvasImage(BufferedImage image) {
-	 	
-		BufferedImage clone = Cutter.deepCopy(image);
-		
+	private void onNewCanvasImage(CanvasUpdate update) {
 		SwingUtilities.invokeLater(() -> {
-			this.currentCutImage = clone;
-			this.currentCutImagePixelSizeMM = cutter.getPixelSizeMM();
-			this.currentCutImageBorderSizeMM = cutter.getBorderSizeMM();
-			this.currentCanvasHeightMM = cutter.getCanvasHeightMM();
+			BufferedImage img = this.currentCutImage;
+			if(update.reset || img==null || img.getWidth()!=update.width || img.getHeight()!=update.height) {
+				img = new BufferedImage(update.width, update.height, BufferedImage.TYPE_4BYTE_ABGR);
+				this.currentCutImage = img;
+			}
+			
+			//the tiles are private copies, only the changed parts of the canvas are written
+			for(CanvasUpdate.Tile tile : update.tiles) {
+				img.getRaster().setRect(tile.x, tile.y, tile.image.getRaster());
+			}
+			if(!update.tiles.isEmpty()) {
+				this.scaledCutImage = null;
+			}
+			
+			this.currentTurtleX = update.turtleX;
+			this.currentTurtleY = update.turtleY;
+			this.currentTurtleAngle = update.turtleAngle;
+			this.currentCutImagePixelSizeMM = update.pixelSizeMM;
+			this.currentCutImageBorderSizeMM = update.borderSizeMM;
+			this.currentCanvasHeightMM = update.canvasHeightMM;
+			this.currentCutImageJobId = update.jobId;
+			if(update.displayList!=this.currentDisplayList) {
+				this.currentDisplayList = update.displayList;
+				updateHighlight();
+			}
 			canvas.repaint();
 		});
 	}
@@ -526,10 +840,64 @@ public class MainWindow extends JFrame {
 		 this.drawOffsetY = bounds.height/2 - drawHeight/2;
 		 
 		 
-		 g.drawImage( img.getScaledInstance(drawWidth, drawHeight, java.awt.Image.SCALE_SMOOTH), this.drawOffsetX, this.drawOffsetY,  null);
-				 
+		 CanvasPaintEvent event = new CanvasPaintEvent();
+		 event.begin();
+		 
+		 //rescaling is expensive, only do it when the image or the panel size has changed
+		 if(scaledCutImage==null || scaledCutImageSource!=img || scaledCutImageWidth!=drawWidth || scaledCutImageHeight!=drawHeight) {
+			 scaledCutImage = img.getScaledInstance(drawWidth, drawHeight, java.awt.Image.SCALE_SMOOTH);
+			 scaledCutImageSource = img;
+			 scaledCutImageWidth = drawWidth;
+			 scaledCutImageHeight = drawHeight;
+			 event.rescaled = true;
+		 }
+		 
+		 g.drawImage( scaledCutImage, this.drawOffsetX, this.drawOffsetY,  null);
+		 
+		 event.width = drawWidth;
+		 event.height = drawHeight;
+		 long previousJob = JobContext.enter(currentCutImageJobId);
+		 event.finish(0, 0, false);
+		 JobContext.exit(previousJob);
+		 
+		 Graphics2D g2 = (Graphics2D) g.create();
+		 try {
+			 g2.translate(this.drawOffsetX, this.drawOffsetY);
+			 g2.scale((double)drawWidth/img.getWidth(), (double)drawHeight/img.getHeight());
+			 
+			 HighlightOverlay highlight = currentHighlight;
+			 if(highlight!=null) {
+				 highlight.paint(g2);
+			 }
+			 
+			 cutter.drawTurtle(g2, currentTurtleX, currentTurtleY, currentTurtleAngle);
+			 
+			 GrblStatus status = grblStatus;
+			 if(status!=null) {
+				 paintGrblStatus(g2, status);
+			 }
+		 }finally {
+			 g2.dispose();
+		 }
 	}
     
+    //live position of the laser head reported by GRBL, in the pixel space of the cut image
+    private void paintGrblStatus(Graphics2D g2, GrblStatus status) {
+    	double offset = (int) (currentCutImageBorderSizeMM / currentCutImagePixelSizeMM);
+    	double textX = offset;
+    	double textY = offset/2;
+    	if(status.hasPosition()) {
+    		double x = offset + (status.x - grblOffsetXMM) / currentCutImagePixelSizeMM;
+    		double y = offset + (currentCanvasHeightMM - (status.y - grblOffsetYMM)) / currentCutImagePixelSizeMM;
+    		g2.setColor(status.spindle>0 ? Cutter.CUT_COLOR : Color.BLUE);
+    		g2.draw(new Ellipse2D.Double(x-GRBL_MARKER_RADIUS, y-GRBL_MARKER_RADIUS, 2*GRBL_MARKER_RADIUS, 2*GRBL_MARKER_RADIUS));
+    		g2.draw(new Line2D.Double(x-2*GRBL_MARKER_RADIUS, y, x+2*GRBL_MARKER_RADIUS, y));
+    		g2.draw(new Line2D.Double(x, y-2*GRBL_MARKER_RADIUS, x, y+2*GRBL_MARKER_RADIUS));
+    	}
+    	g2.setColor(Color.BLACK);
+    	g2.drawString("GRBL "+status, (float) textX, (float) textY);
+    }
+    
     
     //add mouse hint to canvas that displays the current position of the mouse in the coordinate system of the cutter	
 	public void addMouseHint() {
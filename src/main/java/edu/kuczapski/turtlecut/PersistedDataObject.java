@@ -2,84 +2,185 @@ package edu.kuczapski.turtlecut;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import org.apache.commons.io.FileUtils;
 
+/**
+ * A value kept in a file under data/ between runs. Changes are written
+ * behind on a background thread: a burst of {@link #set(Object)} calls ends
+ * in one write of the latest value, at most one per write interval. Each
+ * write goes to a temporary file that replaces the old one by a rename, so
+ * the file always holds a complete value. Pending values are written when
+ * the JVM shuts down.
+ */
 public class PersistedDataObject<T> {
-	
-	private static final ExecutorService SAVE_EXECUTOR = Executors.newFixedThreadPool(1);
-	
+
+	private static final ScheduledExecutorService SAVE_EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable->{
+		Thread thread = new Thread(runnable, "persisted-data-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	//every object, so their pending values can be written on shutdown
+	private static final List<PersistedDataObject<?>> INSTANCES = new ArrayList<>();
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(PersistedDataObject::flushAll, "persisted-data-flush"));
+	}
+
 	public static final String DEFAULT_EXTENSION = ".dat";
-	
-	public final String storagePath = "data/";
+	public static final long DEFAULT_WRITE_INTERVAL_MS = 1000;
+
+	public final String storagePath;
 	private final String name;
-	
+
 	public final Function<T,String> serializer;
 	public final Function<String,T> deserializer;
-	
-	private T data = null;
-	private boolean isDataDirty = false;
-	
+
+	private volatile T data = null;
+	//versions instead of a dirty flag, a value set while an older one is written is not lost
+	private long version = 0;
+	private long savedVersion = 0;
+	private boolean saveScheduled = false;
+	private long writeIntervalMs = DEFAULT_WRITE_INTERVAL_MS;
+	private boolean syncOnWrite = false;
+
+	//one write of this object at a time, from the writer thread or a flush
+	private final Object writeLock = new Object();
+
 	public PersistedDataObject(String name, Function<T, String> serializer, Function<String, T> deserializer) {
 		this("data/", name, serializer, deserializer);
 	}
-	
+
 	public PersistedDataObject(String storagePath, String name, Function<T,String> serializer, Function<String,T> deserializer) {
+        this.storagePath = storagePath;
         this.name = name;
         this.serializer = serializer;
         this.deserializer = deserializer;
-        
+
         try {
 			tryLoadData();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+
+        synchronized (INSTANCES) {
+        	INSTANCES.add(this);
+        }
     }
-	
+
 	public T get() {
 		return data;
 	}
-	
+
 	public void set(T data) {
-		isDataDirty = true;
-		
-		this.data = data;
+		synchronized (this) {
+			this.data = data;
+			version++;
+		}
 		scheduleSaveData();
 	}
-	
+
+	/**
+	 * Schedules a write of the value unless one is already scheduled, the
+	 * write takes the value current at that time.
+	 */
 	public void scheduleSaveData() {
-		SAVE_EXECUTOR.submit(() -> {
+		synchronized (this) {
+			if(saveScheduled) return;
+			saveScheduled = true;
+		}
+		SAVE_EXECUTOR.schedule(() -> {
+			synchronized (this) {
+				saveScheduled = false;
+			}
+			try {
+				flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}, writeIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Writes the value now if it changed since the last write.
+	 */
+	public void flush() throws IOException {
+		synchronized (writeLock) {
+			long versionToSave;
+			synchronized (this) {
+				if(version==savedVersion) return;
+				versionToSave = version;
+			}
+			saveData();
+			synchronized (this) {
+				savedVersion = Math.max(savedVersion, versionToSave);
+			}
+		}
+	}
+
+	//writes the pending values of all objects, called on shutdown
+	public static void flushAll() {
+		List<PersistedDataObject<?>> instances;
+		synchronized (INSTANCES) {
+			instances = new ArrayList<>(INSTANCES);
+		}
+		for(PersistedDataObject<?> instance : instances) {
 			try {
-				if (isDataDirty) {
-					saveData();
-				}
+				instance.flush();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
-		});
+		}
 	}
-	
+
 	public void saveData() throws IOException {
-		File file = new File(storagePath + name + DEFAULT_EXTENSION);
-		if(data!=null) {
-			FileUtils.writeStringToFile(file, serializer.apply(data));
-		}else {
-			FileUtils.delete(file);
+		synchronized (writeLock) {
+			File file = getFile();
+			T data = this.data;
+			if(data!=null) {
+				AtomicFiles.write(file.toPath(), Charset.defaultCharset().encode(serializer.apply(data)), syncOnWrite);
+			}else {
+				Files.deleteIfExists(file.toPath());
+			}
 		}
-        isDataDirty = false;
     }
-	
+
 	public void tryLoadData() throws IOException {
-        File file = new File(storagePath + name + DEFAULT_EXTENSION);
+        File file = getFile();
         if (file.exists()) {
-            String dataString = FileUtils.readFileToString(file);
+            String dataString = FileUtils.readFileToString(file, Charset.defaultCharset());
             data = deserializer.apply(dataString);
-            isDataDirty = false;
         }
     }
-	
-}
 
+	/**
+	 * Shortest time between two writes, a burst of changes within it is
+	 * written once. {@value #DEFAULT_WRITE_INTERVAL_MS} ms by default.
+	 */
+	public void setWriteInterval(long writeIntervalMs) {
+		this.writeIntervalMs = writeIntervalMs;
+	}
+
+	/**
+	 * When enabled, each write is forced to the disk before the rename, so
+	 * the value survives a power loss and not only a crash of the program.
+	 * Off by default.
+	 */
+	public void setSyncOnWrite(boolean syncOnWrite) {
+		this.syncOnWrite = syncOnWrite;
+	}
+
+	private File getFile() {
+		return new File(storagePath + name + DEFAULT_EXTENSION);
+	}
+
+}
@@ -0,0 +1,17 @@
+package edu.kuczapski.turtlecut.grbl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Byte link to a GRBL controller: a serial bridge, a network bridge or the
+ * {@link GrblSimulator}.
+ */
+public interface GrblConnection extends Closeable {
+
+	InputStream getInputStream() throws IOException;
+
+	OutputStream getOutputStream() throws IOException;
+}
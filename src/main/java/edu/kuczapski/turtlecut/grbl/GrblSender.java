@@ -0,0 +1,252 @@
+package edu.kuczapski.turtlecut.grbl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * Streams G-code to GRBL with the character counting protocol: lines are
+ * sent as long as the bytes not yet acknowledged fit in the 128 byte serial
+ * receive buffer of the controller, so the planner never runs dry waiting
+ * for the next line. Responses are handled on their own thread; every
+ * {@code ok} or {@code error} frees the bytes of the oldest line in flight.
+ * <p>
+ * While streaming, a {@code ?} status request is sent periodically, the
+ * reports are forwarded to the listener.
+ */
+public class GrblSender {
+
+	public static final int RX_BUFFER_SIZE = 128;
+	public static final long STATUS_INTERVAL_MS = 200;
+
+	private static final byte STATUS_REQUEST = '?';
+	private static final byte FEED_HOLD = '!';
+	private static final byte SOFT_RESET = 0x18;
+
+	/**
+	 * Callbacks run on the sender threads, not on the EDT.
+	 */
+	public interface Listener{
+		default void onStatus(GrblStatus status) {}
+		default void onProgress(long acknowledged, long sent) {}
+		default void onError(String line, String error) {}
+		default void onFinished(boolean completed) {}
+	}
+
+	private final GrblConnection connection;
+	private final Listener listener;
+	private final OutputStream out;
+
+	private final Object lock = new Object();
+	//lines in flight, oldest first, with their length including the newline
+	private final ArrayDeque<String> inFlight = new ArrayDeque<>();
+	private int bufferedBytes;
+	private long sentLines;
+	private long acknowledgedLines;
+	private volatile boolean stopped;
+	private volatile boolean failed;
+
+	private Thread writerThread;
+	private Thread readerThread;
+	private Thread statusThread;
+
+	public GrblSender(GrblConnection connection, Listener listener) throws IOException {
+		this.connection = connection;
+		this.listener = listener;
+		this.out = connection.getOutputStream();
+	}
+
+	/**
+	 * Starts streaming the program in the background. The reader is closed
+	 * when done.
+	 */
+	public void start(Reader program) throws IOException {
+		BufferedReader responses = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.US_ASCII));
+
+		readerThread = new Thread(()->readResponses(responses), "grbl-reader");
+		writerThread = new Thread(()->stream(program), "grbl-writer");
+		statusThread = new Thread(this::pollStatus, "grbl-status");
+		for(Thread thread : new Thread[] {readerThread, writerThread, statusThread}) {
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Holds the motion and resets the controller, which also switches the laser off.
+	 */
+	public void stop() {
+		if(stopped) return;
+		stopped = true;
+		try {
+			writeRealtime(FEED_HOLD);
+			writeRealtime(SOFT_RESET);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+	}
+
+	public boolean isRunning() {
+		return writerThread!=null && writerThread.isAlive();
+	}
+
+	public void join() throws InterruptedException {
+		if(writerThread!=null) writerThread.join();
+	}
+
+	public long getSentLines() {
+		synchronized (lock) {
+			return sentLines;
+		}
+	}
+
+	public long getAcknowledgedLines() {
+		synchronized (lock) {
+			return acknowledgedLines;
+		}
+	}
+
+	private void stream(Reader program) {
+		boolean completed = false;
+		try(BufferedReader lines = new BufferedReader(program)) {
+			String line;
+			while(!stopped && (line = lines.readLine())!=null) {
+				line = strip(line);
+				if(line.isEmpty()) continue;
+
+				int length = line.length()+1;
+				if(length>RX_BUFFER_SIZE) {
+					failed = true;
+					listener.onError(line, "line longer than the receive buffer");
+					break;
+				}
+
+				synchronized (lock) {
+					while(!stopped && bufferedBytes+length>RX_BUFFER_SIZE) {
+						lock.wait();
+					}
+					if(stopped) break;
+					inFlight.add(line);
+					bufferedBytes += length;
+					sentLines++;
+				}
+				byte[] bytes = (line+"\n").getBytes(StandardCharsets.US_ASCII);
+				synchronized (out) {
+					out.write(bytes);
+					out.flush();
+				}
+			}
+
+			//the program is complete once the last line has been acknowledged
+			synchronized (lock) {
+				while(!stopped && !inFlight.isEmpty()) {
+					lock.wait();
+				}
+			}
+			completed = !stopped && !failed;
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			stopped = true;
+			statusThread.interrupt();
+			listener.onFinished(completed);
+		}
+	}
+
+	private void readResponses(BufferedReader responses) {
+		try {
+			String response;
+			while((response = responses.readLine())!=null) {
+				response = response.trim();
+				if(response.equals("ok") || response.startsWith("error")) {
+					acknowledge(response);
+				}else if(response.startsWith("<")) {
+					GrblStatus status = GrblStatus.parse(response);
+					if(status!=null) listener.onStatus(status);
+				}else if(response.startsWith("ALARM")) {
+					failed = true;
+					listener.onError(null, response);
+					stop();
+				}
+				//welcome message and [feedback] lines need no handling
+			}
+		} catch (IOException e) {
+			if(!stopped) e.printStackTrace();
+		} finally {
+			//the connection is gone, nothing will be acknowledged anymore
+			stopped = true;
+			synchronized (lock) {
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private void acknowledge(String response) {
+		String line;
+		long acknowledged;
+		long sent;
+		synchronized (lock) {
+			line = inFlight.poll();
+			if(line!=null) bufferedBytes -= line.length()+1;
+			acknowledged = ++acknowledgedLines;
+			sent = sentLines;
+			lock.notifyAll();
+		}
+
+		if(response.startsWith("error")) {
+			//GRBL dropped the line, going on could burn a wrong shape
+			failed = true;
+			listener.onError(line, response);
+			stop();
+		}
+		listener.onProgress(acknowledged, sent);
+	}
+
+	private void pollStatus() {
+		try {
+			while(!stopped) {
+				writeRealtime(STATUS_REQUEST);
+				Thread.sleep(STATUS_INTERVAL_MS);
+			}
+		} catch (IOException e) {
+			if(!stopped) e.printStackTrace();
+		} catch (InterruptedException e) {
+			//streaming finished
+		}
+	}
+
+	//real time commands are picked out of the stream by GRBL and do not use the receive buffer
+	private void writeRealtime(byte command) throws IOException {
+		synchronized (out) {
+			out.write(command);
+			out.flush();
+		}
+	}
+
+	//removes comments and spaces, GRBL does not need them and they would only take room in its buffer
+	static String strip(String line) {
+		StringBuilder sb = new StringBuilder(line.length());
+		boolean inParentheses = false;
+		for(int i=0;i<line.length();i++) {
+			char c = line.charAt(i);
+			if(c==';') break;
+			if(c=='(') {
+				inParentheses = true;
+			}else if(c==')') {
+				inParentheses = false;
+			}else if(!inParentheses && !Character.isWhitespace(c)) {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,301 @@
+package edu.kuczapski.turtlecut.grbl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * Loopback stand-in for a GRBL 1.1 controller, to try the sender without a
+ * machine. It keeps a 128 byte receive buffer and a 16 block planner: a line
+ * is only parsed, and acknowledged, once the planner has room for it, and
+ * the blocks are executed in (scaled) real time at their feed rate. Real
+ * time commands ({@code ? ! ~} and soft reset) are answered immediately.
+ * <p>
+ * Only the words the generator emits are understood: G0 to G3, G17, G21,
+ * G28.2, G40, G54, G90, X, Y, Z, I, J, F, S, and M2 to M9.
+ */
+public class GrblSimulator implements GrblConnection {
+
+	public static final int RX_BUFFER_SIZE = 128;
+	public static final int PLANNER_BLOCKS = 16;
+
+	private static final double RAPID_RATE_MM_PER_MIN = 3000;
+	private static final String WELCOME = "Grbl 1.1h ['$' for help]";
+
+	private static class Block{
+		final double x1;
+		final double y1;
+		final double x2;
+		final double y2;
+		final double durationSec;
+		final double feed;
+		final double power;
+
+		Block(double x1, double y1, double x2, double y2, double durationSec, double feed, double power) {
+			this.x1 = x1;
+			this.y1 = y1;
+			this.x2 = x2;
+			this.y2 = y2;
+			this.durationSec = durationSec;
+			this.feed = feed;
+			this.power = power;
+		}
+	}
+
+	private final PipedInputStream hostOutput = new PipedInputStream(4096);
+	private final PipedOutputStream hostInput = new PipedOutputStream();
+	private final PipedInputStream deviceInput = new PipedInputStream(4096);
+	private final PipedOutputStream deviceOutput = new PipedOutputStream();
+
+	private final double timeScale;
+	private final Thread thread;
+	private volatile boolean closed;
+
+	//device state, only touched by the simulator thread
+	private final ArrayDeque<Byte> rxBuffer = new ArrayDeque<>();
+	private final ArrayDeque<Block> planner = new ArrayDeque<>();
+	private int maxRxBufferUsage;
+	private boolean rxOverflow;
+	private boolean hold;
+	private double blockTimeSec;
+	private double x;
+	private double y;
+	private double plannedX;
+	private double plannedY;
+	private int motionMode;
+	private double feed = 0;
+	private double power = 0;
+
+	/**
+	 * The time scale speeds up the simulated motion, 1 is real time.
+	 */
+	public GrblSimulator(double timeScale) throws IOException {
+		this.timeScale = timeScale;
+		hostOutput.connect(deviceOutput);
+		deviceInput.connect(hostInput);
+
+		thread = new Thread(this::run, "grbl-simulator");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return hostOutput;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return hostInput;
+	}
+
+	/**
+	 * Largest number of bytes that were waiting in the receive buffer, a
+	 * correct sender never goes above {@link #RX_BUFFER_SIZE}.
+	 */
+	public synchronized int getMaxRxBufferUsage() {
+		return maxRxBufferUsage;
+	}
+
+	public synchronized boolean hasOverflowed() {
+		return rxOverflow;
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		thread.interrupt();
+		hostInput.close();
+		deviceOutput.close();
+	}
+
+	private void run() {
+		try {
+			respond(WELCOME);
+			long lastNanos = System.nanoTime();
+			while(!closed) {
+				receive();
+				parseLines();
+
+				long now = System.nanoTime();
+				execute((now-lastNanos)/1e9*timeScale);
+				lastNanos = now;
+
+				Thread.sleep(1);
+			}
+		} catch (IOException e) {
+			if(!closed) e.printStackTrace();
+		} catch (InterruptedException e) {
+			//closed
+		}
+	}
+
+	private void receive() throws IOException {
+		while(deviceInput.available()>0) {
+			int b = deviceInput.read();
+			switch (b) {
+			case '?':
+				respond(status());
+				break;
+			case '!':
+				hold = true;
+				break;
+			case '~':
+				hold = false;
+				break;
+			case 0x18:
+				reset();
+				break;
+			default:
+				rxBuffer.add((byte) b);
+				synchronized (this) {
+					maxRxBufferUsage = Math.max(maxRxBufferUsage, rxBuffer.size());
+					//a real controller would silently lose the bytes
+					if(rxBuffer.size()>RX_BUFFER_SIZE) rxOverflow = true;
+				}
+			}
+		}
+	}
+
+	private void reset() throws IOException {
+		rxBuffer.clear();
+		planner.clear();
+		blockTimeSec = 0;
+		hold = false;
+		plannedX = x;
+		plannedY = y;
+		power = 0;
+		respond(WELCOME);
+	}
+
+	//parses complete lines while the planner has room, like GRBL the ok is sent once the block is planned
+	private void parseLines() throws IOException {
+		while(planner.size()<PLANNER_BLOCKS) {
+			int length = 0;
+			boolean complete = false;
+			for(byte b : rxBuffer) {
+				length++;
+				if(b=='\n') {
+					complete = true;
+					break;
+				}
+			}
+			if(!complete) return;
+
+			StringBuilder line = new StringBuilder(length);
+			for(int i=0;i<length;i++) {
+				char c = (char) (byte) rxBuffer.poll();
+				if(c!='\n' && c!='\r') line.append(c);
+			}
+			respond(parse(line.toString().toUpperCase(Locale.ROOT)));
+		}
+	}
+
+	private String parse(String line) {
+		if(line.isEmpty() || line.startsWith("$")) return "ok";
+
+		double targetX = plannedX;
+		double targetY = plannedY;
+		boolean move = false;
+		int i = 0;
+		while(i<line.length()) {
+			char letter = line.charAt(i++);
+			if(Character.isWhitespace(letter)) continue;
+			int start = i;
+			while(i<line.length() && (Character.isDigit(line.charAt(i)) || line.charAt(i)=='.' || line.charAt(i)=='-')) i++;
+			//axis words without a value only select axes, as in G28.2 XY
+			if(start==i && (letter=='X' || letter=='Y' || letter=='Z')) continue;
+			double value;
+			try {
+				value = Double.parseDouble(line.substring(start, i));
+			}catch (NumberFormatException e) {
+				//bad number format
+				return "error:2";
+			}
+
+			switch (letter) {
+			case 'G':
+				if(value>=0 && value<=3 && value==Math.floor(value)) {
+					motionMode = (int) value;
+				}else if(value!=17 && value!=21 && value!=28.2 && value!=40 && value!=54 && value!=90) {
+					//unsupported command
+					return "error:20";
+				}
+				break;
+			case 'X':
+				targetX = value;
+				move = true;
+				break;
+			case 'Y':
+				targetY = value;
+				move = true;
+				break;
+			case 'F':
+				feed = value;
+				break;
+			case 'S':
+				power = value;
+				break;
+			case 'Z':
+			case 'I':
+			case 'J':
+			case 'M':
+				break;
+			default:
+				//expected command letter
+				return "error:1";
+			}
+		}
+
+		if(move) {
+			if(motionMode!=0 && feed<=0) {
+				//undefined feed rate
+				return "error:22";
+			}
+			//arcs are timed as straight moves, only the end point matters here
+			double rate = motionMode==0 ? RAPID_RATE_MM_PER_MIN : feed;
+			double distance = Math.hypot(targetX-plannedX, targetY-plannedY);
+			planner.add(new Block(plannedX, plannedY, targetX, targetY, distance/rate*60, rate, motionMode==0 ? 0 : power));
+			plannedX = targetX;
+			plannedY = targetY;
+		}
+		return "ok";
+	}
+
+	private void execute(double elapsedSec) {
+		if(hold) return;
+		while(elapsedSec>0 && !planner.isEmpty()) {
+			Block block = planner.peek();
+			double left = block.durationSec - blockTimeSec;
+			if(elapsedSec<left) {
+				blockTimeSec += elapsedSec;
+				double t = blockTimeSec/block.durationSec;
+				x = block.x1 + (block.x2-block.x1)*t;
+				y = block.y1 + (block.y2-block.y1)*t;
+				return;
+			}
+			elapsedSec -= left;
+			blockTimeSec = 0;
+			x = block.x2;
+			y = block.y2;
+			planner.poll();
+		}
+	}
+
+	private String status() {
+		Block block = planner.peek();
+		String state = hold ? "Hold:0" : block==null ? "Idle" : "Run";
+		return String.format(Locale.ROOT, "<%s|MPos:%.3f,%.3f,0.000|FS:%.0f,%.0f>", state, x, y,
+				block==null || hold ? 0 : block.feed, block==null || hold ? 0 : block.power);
+	}
+
+	private void respond(String response) throws IOException {
+		deviceOutput.write((response+"\r\n").getBytes(StandardCharsets.US_ASCII));
+		deviceOutput.flush();
+	}
+}
@@ -0,0 +1,65 @@
+package edu.kuczapski.turtlecut.grbl;
+
+/**
+ * One real-time status report, e.g. {@code <Run|MPos:10.000,20.000,0.000|FS:150,600>}.
+ * Positions are in machine millimeters.
+ */
+public class GrblStatus {
+
+	public final String state;
+	public final double x;
+	public final double y;
+	public final double feed;
+	public final double spindle;
+
+	public GrblStatus(String state, double x, double y, double feed, double spindle) {
+		this.state = state;
+		this.x = x;
+		this.y = y;
+		this.feed = feed;
+		this.spindle = spindle;
+	}
+
+	/**
+	 * Returns null if the line is not a status report. Work positions are
+	 * taken as machine positions, the exported G-code uses G54 without offset.
+	 */
+	public static GrblStatus parse(String line) {
+		if(!line.startsWith("<") || !line.endsWith(">")) return null;
+
+		String[] fields = line.substring(1, line.length()-1).split("\\|");
+		String state = fields[0];
+		double x = Double.NaN;
+		double y = Double.NaN;
+		double feed = 0;
+		double spindle = 0;
+		try {
+			for(int i=1;i<fields.length;i++) {
+				String field = fields[i];
+				if(field.startsWith("MPos:") || field.startsWith("WPos:")) {
+					String[] position = field.substring(5).split(",");
+					x = Double.parseDouble(position[0]);
+					y = Double.parseDouble(position[1]);
+				}else if(field.startsWith("FS:")) {
+					String[] values = field.substring(3).split(",");
+					feed = Double.parseDouble(values[0]);
+					spindle = values.length>1 ? Double.parseDouble(values[1]) : 0;
+				}else if(field.startsWith("F:")) {
+					feed = Double.parseDouble(field.substring(2));
+				}
+			}
+		}catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			return null;
+		}
+		return new GrblStatus(state, x, y, feed, spindle);
+	}
+
+	public boolean hasPosition() {
+		return !Double.isNaN(x) && !Double.isNaN(y);
+	}
+
+	@Override
+	public String toString() {
+		return state + (hasPosition() ? String.format(" X%.2f Y%.2f", x, y) : "") + String.format(" F%.0f S%.0f", feed, spindle);
+	}
+}
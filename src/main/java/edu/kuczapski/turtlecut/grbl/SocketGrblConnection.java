@@ -0,0 +1,52 @@
+package edu.kuczapski.turtlecut.grbl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * GRBL reached over TCP, through a serial to network bridge (ser2net,
+ * ESP8266/ESP32 WiFi bridges and the like).
+ */
+public class SocketGrblConnection implements GrblConnection {
+
+	private static final int CONNECT_TIMEOUT_MS = 5000;
+
+	private final Socket socket;
+
+	public SocketGrblConnection(String host, int port) throws IOException {
+		socket = new Socket();
+		socket.setTcpNoDelay(true);
+		socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+	}
+
+	/**
+	 * Parses "host:port".
+	 */
+	public static SocketGrblConnection connect(String address) throws IOException {
+		int separator = address.lastIndexOf(':');
+		if(separator<0) throw new IOException("Expected host:port, got "+address);
+		try {
+			return new SocketGrblConnection(address.substring(0, separator).trim(), Integer.parseInt(address.substring(separator+1).trim()));
+		}catch (NumberFormatException e) {
+			throw new IOException("Invalid port in "+address, e);
+		}
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return socket.getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return socket.getOutputStream();
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+}
@@ -0,0 +1,21 @@
+package edu.kuczapski.turtlecut.profiling;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("turtlecut.CanvasPaint")
+@Label("Canvas Paint")
+@Description("Canvas image scaled to the window and painted")
+public class CanvasPaintEvent extends StageEvent {
+
+	@Label("Rescaled")
+	@Description("Whether the image was scaled again, otherwise the last scaled image was painted")
+	public boolean rescaled;
+
+	@Label("Width")
+	public int width;
+
+	@Label("Height")
+	public int height;
+}
@@ -0,0 +1,18 @@
+package edu.kuczapski.turtlecut.profiling;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("turtlecut.CanvasUpdate")
+@Label("Canvas Update")
+@Description("Changed tiles of the canvas copied and sent to the window")
+public class CanvasUpdateEvent extends StageEvent {
+
+	@Label("Tiles")
+	public int tiles;
+
+	@Label("Reset")
+	@Description("Whether the whole canvas was sent")
+	public boolean reset;
+}
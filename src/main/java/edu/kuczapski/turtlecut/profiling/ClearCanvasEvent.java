@@ -0,0 +1,19 @@
+package edu.kuczapski.turtlecut.profiling;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("turtlecut.ClearCanvas")
+@Label("Clear Canvas")
+@Description("Canvas of the cutter reset to the background before a render")
+public class ClearCanvasEvent extends StageEvent {
+
+	@Label("Background Drawn")
+	@Description("Whether the grid and labels had to be drawn again for a new canvas size")
+	public boolean backgroundDrawn;
+
+	@Label("Tiles Restored")
+	@Description("Tiles drawn on by the previous render copied back from the background")
+	public int tilesRestored;
+}
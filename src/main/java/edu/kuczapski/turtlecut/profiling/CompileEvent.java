@@ -0,0 +1,11 @@
+package edu.kuczapski.turtlecut.profiling;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("turtlecut.Compile")
+@Label("Compile")
+@Description("Parse tree run by the compiler into a display list")
+public class CompileEvent extends StageEvent {
+}
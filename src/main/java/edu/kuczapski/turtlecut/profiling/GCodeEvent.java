@@ -0,0 +1,14 @@
+package edu.kuczapski.turtlecut.profiling;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("turtlecut.GCode")
+@Label("G-code")
+@Description("Display list turned into G-code, with the deduplication and ordering of the toolpath")
+public class GCodeEvent extends StageEvent {
+
+	@Label("Polylines")
+	public int polylines;
+}
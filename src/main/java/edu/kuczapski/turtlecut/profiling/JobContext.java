@@ -0,0 +1,32 @@
+package edu.kuczapski.turtlecut.profiling;
+
+/**
+ * The job the current thread works for, so the events of the stages deep
+ * in the pipeline carry the id of the render or export that started them.
+ */
+public final class JobContext {
+
+	private static final ThreadLocal<long[]> CURRENT = ThreadLocal.withInitial(()->new long[1]);
+
+	private JobContext() {
+	}
+
+	public static long currentJobId() {
+		return CURRENT.get()[0];
+	}
+
+	/**
+	 * Makes the job current on this thread and returns the previous one, to
+	 * be given back to {@link #exit(long)}.
+	 */
+	public static long enter(long jobId) {
+		long[] current = CURRENT.get();
+		long previous = current[0];
+		current[0] = jobId;
+		return previous;
+	}
+
+	public static void exit(long previousJobId) {
+		CURRENT.get()[0] = previousJobId;
+	}
+}
@@ -0,0 +1,14 @@
+package edu.kuczapski.turtlecut.profiling;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("turtlecut.Lex")
+@Label("Lex")
+@Description("Program text turned into tokens")
+public class LexEvent extends StageEvent {
+
+	@Label("Tokens")
+	public int tokens;
+}
@@ -0,0 +1,19 @@
+package edu.kuczapski.turtlecut.profiling;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("turtlecut.Parse")
+@Label("Parse")
+@Description("Tokens parsed into a tree, only the edited blocks for the editor")
+public class ParseEvent extends StageEvent {
+
+	@Label("Parsed Blocks")
+	@Description("Top level blocks parsed, all of them unless parsed incrementally")
+	public int parsedBlocks;
+
+	@Label("Reused Blocks")
+	@Description("Top level blocks kept from the previous tree")
+	public int reusedBlocks;
+}
@@ -0,0 +1,59 @@
+package edu.kuczapski.turtlecut.profiling;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * Flight recording of the pipeline with the bundled turtle-cut.jfc settings,
+ * started when the program runs with -D{@value #RECORDING_PROPERTY}=&lt;file.jfr&gt;.
+ * The recording is written to the file when the program exits.
+ */
+public final class PipelineRecording {
+
+	public static final String RECORDING_PROPERTY = "turtlecut.recording";
+	public static final String CONFIGURATION_RESOURCE = "/turtle-cut.jfc";
+
+	private PipelineRecording() {
+	}
+
+	public static Configuration getConfiguration() throws IOException, ParseException {
+		InputStream in = PipelineRecording.class.getResourceAsStream(CONFIGURATION_RESOURCE);
+		if(in==null) throw new IOException(CONFIGURATION_RESOURCE+" not found");
+		try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+			return Configuration.create(reader);
+		}
+	}
+
+	/**
+	 * Starts the recording if the property names a file, does nothing otherwise.
+	 *
+	 * @return the recording, or null when it was not requested or could not start
+	 */
+	public static Recording startIfRequested() {
+		String file = System.getProperty(RECORDING_PROPERTY);
+		if(file==null || file.isEmpty()) return null;
+		try {
+			Path destination = Paths.get(file);
+			Recording recording = new Recording(getConfiguration());
+			recording.setName("Turtle Cut");
+			recording.setToDisk(true);
+			recording.setDestination(destination);
+			recording.setDumpOnExit(true);
+			recording.start();
+			return recording;
+		} catch (IOException | ParseException | IllegalStateException | SecurityException e) {
+			//profiling is optional, the program runs without it
+			e.printStackTrace();
+			return null;
+		}
+	}
+}
@@ -0,0 +1,11 @@
+package edu.kuczapski.turtlecut.profiling;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("turtlecut.Rasterize")
+@Label("Rasterize")
+@Description("Display list drawn on the canvas of the cutter, with the animation if any")
+public class RasterizeEvent extends StageEvent {
+}
@@ -0,0 +1,21 @@
+package edu.kuczapski.turtlecut.profiling;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("turtlecut.RenderJob")
+@Label("Render Job")
+@Description("Job of the render scheduler, from its start to its end")
+public class RenderJobEvent extends StageEvent {
+
+	@Label("Trigger")
+	@Description("What requested the render, e.g. an edit or the play button")
+	public String trigger;
+
+	@Label("Queue Latency")
+	@Description("Time from the first request merged into the job to its start")
+	@Timespan(Timespan.NANOSECONDS)
+	public long queueLatency;
+}
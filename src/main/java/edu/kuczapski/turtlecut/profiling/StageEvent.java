@@ -0,0 +1,48 @@
+package edu.kuczapski.turtlecut.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * A stage of the render or export pipeline, recorded by the JDK Flight
+ * Recorder when enabled, e.g. with the turtle-cut.jfc settings. The fields
+ * a stage does not know are left at 0.
+ */
+@Category({"Turtle Cut", "Pipeline"})
+@StackTrace(false)
+public abstract class StageEvent extends Event {
+
+	@Label("Job Id")
+	@Description("Render or export job the stage ran for, 0 outside of a job")
+	public long jobId;
+
+	@Label("Program Size")
+	@Description("Characters of the program handled by the stage")
+	public long programSize;
+
+	@Label("Segments")
+	@Description("Lines and arcs handled by the stage")
+	public long segments;
+
+	@Label("Cancelled")
+	@Description("Whether the job was cancelled while the stage ran")
+	public boolean cancelled;
+
+	/**
+	 * Ends the event and commits it if it is recorded, with the job of the
+	 * current thread.
+	 */
+	public void finish(long programSize, long segments, boolean cancelled) {
+		end();
+		if(shouldCommit()) {
+			this.jobId = JobContext.currentJobId();
+			this.programSize = programSize;
+			this.segments = segments;
+			this.cancelled = cancelled;
+			commit();
+		}
+	}
+}
@@ -2,14 +2,10 @@ package edu.kuczapski.turtlecut.scripting;
 
 import java.util.Arrays;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Set;
 
 import javax.swing.text.Segment;
 
-import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CharStreams;
 import org.fife.ui.rsyntaxtextarea.Token;
 import org.fife.ui.rsyntaxtextarea.TokenImpl;
 import org.fife.ui.rsyntaxtextarea.TokenMaker;
@@ -32,20 +28,37 @@ public class AntlrTokenMaker extends TokenMakerBase {
 	};
 
 
-
-	public Token toList(Segment text, int startOffset, List<org.antlr.v4.runtime.Token> antlrTokens) {
-		if (antlrTokens.isEmpty()) {
-			return null;
-		} else {
-			org.antlr.v4.runtime.Token at = antlrTokens.get(0);
-			TokenImpl t = new TokenImpl(text, text.offset + at.getStartIndex(),
-					text.offset + at.getStartIndex() + at.getText().length() - 1,
-					startOffset + at.getStartIndex(), getType(at), 0);
-			t.setNextToken( toList(text, startOffset, antlrTokens.subList(1, antlrTokens.size())));
-			return t;
+	//line contents that are lexed again are looked up in a direct mapped cache
+	private static final int CACHE_SIZE = 1024;
+
+	/**
+	 * Lexed form of one line: the characters and, per token, its start, its
+	 * end and its RSyntaxTextArea type.
+	 */
+	private static class CachedLine{
+		char[] text = new char[0];
+		int length = -1;
+		int[] tokens = new int[0];
+		int tokenCount;
+
+		boolean matches(Segment segment) {
+			if(length!=segment.count) return false;
+			for(int i=0;i<length;i++) {
+				if(text[i]!=segment.array[segment.offset+i]) return false;
+			}
+			return true;
 		}
 	}
 
+	private final CachedLine[] cache = new CachedLine[CACHE_SIZE];
+	private final SegmentCharStream input = new SegmentCharStream();
+	private final TurtleLexer lexer = new TurtleLexer(null);
+	private TokenImpl[] tokenPool = new TokenImpl[0];
+
+	public AntlrTokenMaker() {
+		lexer.removeErrorListeners();
+	}
+
 	private int getType(org.antlr.v4.runtime.Token at) {
 		//return at.getType();
 		switch(at.getType()) {
@@ -75,22 +88,76 @@ public class AntlrTokenMaker extends TokenMakerBase {
 		
 	}
 
+	/**
+	 * Builds the token list of a line from pooled tokens, the list is only
+	 * valid until the next call. Lines already seen are not lexed again.
+	 */
 	@Override
 	public Token getTokenList(Segment text, int initialTokenType, int startOffset) {
 		if (text == null) {
 			throw new IllegalArgumentException();
 		}
 
-		CharStream input = CharStreams.fromString(text.toString());
-		TurtleLexer lexer = new TurtleLexer(input);
-		
+		CachedLine line = lookup(text);
+		int count = line.tokenCount/3;
+		//the pool of the base class grows by a fixed step, far too slow for very long lines
+		if(tokenPool.length<count+1) {
+			int size = Math.max(count+1, tokenPool.length*2);
+			int filled = tokenPool.length;
+			tokenPool = Arrays.copyOf(tokenPool, size);
+			for(int i=filled;i<size;i++) {
+				tokenPool[i] = new TokenImpl();
+			}
+		}
 
-		List<org.antlr.v4.runtime.Token> tokens = new LinkedList<>();
-		while (!lexer._hitEOF) {
-			tokens.add(lexer.nextToken());
+		int[] tokens = line.tokens;
+		for(int i=0;i<count;i++) {
+			int start = tokens[3*i];
+			tokenPool[i].set(text.array, text.offset+start, text.offset+tokens[3*i+1], startOffset+start, tokens[3*i+2]);
+			if(i>0) tokenPool[i-1].setNextToken(tokenPool[i]);
 		}
 
-		return toList(text, startOffset, tokens);
+		//the list ends with a null token, the line does not continue on the next one
+		TokenImpl end = tokenPool[count];
+		end.text = null;
+		end.setType(Token.NULL);
+		end.setOffset(-1);
+		end.setNextToken(null);
+		if(count>0) tokenPool[count-1].setNextToken(end);
+		return tokenPool[0];
 	}
-}
 
+	private CachedLine lookup(Segment text) {
+		int hash = text.count;
+		for(int i=0;i<text.count;i++) {
+			hash = 31*hash + text.array[text.offset+i];
+		}
+		int slot = (hash ^ (hash>>>16)) & (CACHE_SIZE-1);
+
+		CachedLine line = cache[slot];
+		if(line==null) {
+			line = new CachedLine();
+			cache[slot] = line;
+		}else if(line.matches(text)) {
+			return line;
+		}
+
+		//the evicted entry is overwritten, its arrays are kept when large enough
+		if(line.text.length<text.count) line.text = new char[text.count];
+		System.arraycopy(text.array, text.offset, line.text, 0, text.count);
+		line.length = text.count;
+		line.tokenCount = 0;
+
+		input.reset(text);
+		lexer.setInputStream(input);
+		for(org.antlr.v4.runtime.Token token = lexer.nextToken(); token.getType()!=org.antlr.v4.runtime.Token.EOF; token = lexer.nextToken()) {
+			if(line.tokenCount+3>line.tokens.length) {
+				line.tokens = Arrays.copyOf(line.tokens, Math.max(24, line.tokens.length*2));
+			}
+			line.tokens[line.tokenCount++] = token.getStartIndex();
+			line.tokens[line.tokenCount++] = token.getStopIndex();
+			line.tokens[line.tokenCount++] = getType(token);
+		}
+		return line;
+	}
+}
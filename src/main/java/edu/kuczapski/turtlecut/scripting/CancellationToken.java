@@ -0,0 +1,52 @@
+package edu.kuczapski.turtlecut.scripting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cancellation of one job. Unlike a flag on the object running the jobs it
+ * is never reset, so cancelling a job cannot be undone by the start of the
+ * next one. The work checks {@link #isCancelled()} as it goes, and can
+ * register callbacks to stop the parts that have their own flag. The token
+ * also identifies its job in the profiling events.
+ */
+public class CancellationToken {
+
+	private static final AtomicLong NEXT_ID = new AtomicLong(1);
+
+	public final long id = NEXT_ID.getAndIncrement();
+
+	private volatile boolean cancelled = false;
+	private List<Runnable> callbacks = new ArrayList<>();
+
+	public void cancel() {
+		List<Runnable> toRun;
+		synchronized (this) {
+			if(cancelled) return;
+			cancelled = true;
+			toRun = callbacks;
+			callbacks = null;
+		}
+		for(Runnable callback : toRun) {
+			callback.run();
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Runs the callback when the token is cancelled, right away if it already is.
+	 */
+	public void onCancel(Runnable callback) {
+		synchronized (this) {
+			if(!cancelled) {
+				callbacks.add(callback);
+				return;
+			}
+		}
+		callback.run();
+	}
+}
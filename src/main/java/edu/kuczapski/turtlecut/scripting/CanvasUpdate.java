@@ -0,0 +1,62 @@
+package edu.kuczapski.turtlecut.scripting;
+
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Incremental change of the canvas rendered by {@link Cutter}: copies of the
+ * tiles that changed since the previous update, plus the turtle position,
+ * which is not part of the canvas and has to be drawn as an overlay.
+ */
+public class CanvasUpdate {
+
+	public static final class Tile{
+		public final int x;
+		public final int y;
+		public final BufferedImage image;
+
+		public Tile(int x, int y, BufferedImage image) {
+			this.x = x;
+			this.y = y;
+			this.image = image;
+		}
+	}
+
+	//size of the whole canvas in pixels
+	public final int width;
+	public final int height;
+
+	//when true the tiles cover the whole canvas and previous content has to be discarded
+	public final boolean reset;
+	public final List<Tile> tiles;
+
+	//turtle position in canvas pixels
+	public final double turtleX;
+	public final double turtleY;
+	public final double turtleAngle;
+
+	public final double pixelSizeMM;
+	public final double borderSizeMM;
+	public final double canvasHeightMM;
+
+	public final DisplayList displayList;
+	//render job that drew the tiles, for the profiling events of the window
+	public final long jobId;
+
+	public CanvasUpdate(int width, int height, boolean reset, List<Tile> tiles, double turtleX, double turtleY,
+			double turtleAngle, double pixelSizeMM, double borderSizeMM, double canvasHeightMM, DisplayList displayList, long jobId) {
+		this.width = width;
+		this.height = height;
+		this.reset = reset;
+		this.tiles = Collections.unmodifiableList(tiles);
+		this.turtleX = turtleX;
+		this.turtleY = turtleY;
+		this.turtleAngle = turtleAngle;
+		this.pixelSizeMM = pixelSizeMM;
+		this.borderSizeMM = borderSizeMM;
+		this.canvasHeightMM = canvasHeightMM;
+		this.displayList = displayList;
+		this.jobId = jobId;
+	}
+}
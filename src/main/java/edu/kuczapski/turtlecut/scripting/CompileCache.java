@@ -0,0 +1,218 @@
+package edu.kuczapski.turtlecut.scripting;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+import edu.kuczapski.turtlecut.scripting.TurtleParser.ProgramContext;
+
+/**
+ * Compiled programs by the SHA-256 of their text and of the canvas size,
+ * so running the same text again, after an undo or for an export right
+ * after the preview, skips parsing and compiling. The G-code is generated
+ * on the first request and kept per set of generator options.
+ * <p>
+ * The cache is bounded by an estimate of the memory held by the entries,
+ * the least recently used ones are dropped first. It can be used from
+ * several threads.
+ */
+public class CompileCache {
+
+	public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+	//rough size of the G-code of a segment
+	private static final int GCODE_BYTES_PER_SEGMENT = 24;
+
+	/**
+	 * Key of a program, the digest of its text and canvas.
+	 */
+	public static final class Key{
+		private final byte[] digest;
+		private final int hash;
+
+		private Key(byte[] digest) {
+			this.digest = digest;
+			this.hash = Arrays.hashCode(digest);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && Arrays.equals(digest, ((Key) obj).digest);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	//generated G-code with the statistics the generator reports for it
+	private static final class GCode{
+		final String text;
+		final double removedLengthMM;
+		final double travelBeforeMM;
+		final double travelAfterMM;
+
+		GCode(String text, GCodeGenerator generator) {
+			this.text = text;
+			this.removedLengthMM = generator.getRemovedLengthMM();
+			this.travelBeforeMM = generator.getTravelBeforeMM();
+			this.travelAfterMM = generator.getTravelAfterMM();
+		}
+	}
+
+	public final class Entry{
+		private final DisplayList displayList;
+		private final Map<String, GCode> gcode = new HashMap<>();
+		private long bytes;
+
+		private Entry(DisplayList displayList, long bytes) {
+			this.displayList = displayList;
+			this.bytes = bytes;
+		}
+
+		public DisplayList getDisplayList() {
+			return displayList;
+		}
+
+		/**
+		 * G-code for the options of the generator, generated by it on the
+		 * first call. On later calls the generator is initialized for the
+		 * canvas and gets the statistics of the first generation back.
+		 */
+		public String getGCode(GCodeGenerator generator) {
+			String options = generator.getOptionsKey();
+			GCode cached;
+			synchronized (CompileCache.this) {
+				cached = gcode.get(options);
+			}
+			if(cached!=null) {
+				generator.init(displayList.getCanvasWidthMM(), displayList.getCanvasHeightMM());
+				generator.setStatistics(cached.removedLengthMM, cached.travelBeforeMM, cached.travelAfterMM);
+				return cached.text;
+			}
+
+			String generated = generator.generate(displayList);
+			synchronized (CompileCache.this) {
+				if(gcode.putIfAbsent(options, new GCode(generated, generator))==null && entries.containsValue(this)) {
+					bytes += generated.length();
+					totalBytes += generated.length();
+					evict();
+				}
+			}
+			return generated;
+		}
+
+		/**
+		 * Writes the G-code for the options of the generator. Programs too
+		 * large to be worth keeping as text are streamed without caching.
+		 */
+		public void writeGCode(GCodeGenerator generator, Writer writer) throws IOException {
+			long estimate = (long) displayList.getSegmentCount()*GCODE_BYTES_PER_SEGMENT;
+			if(estimate>maxBytes/4) {
+				generator.write(displayList, writer);
+			}else {
+				writer.write(getGCode(generator));
+				writer.flush();
+			}
+		}
+	}
+
+	private final long maxBytes;
+	//access ordered, the eldest entry is the least recently used
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long totalBytes;
+	private long hits;
+	private long misses;
+
+	public CompileCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public static Key key(String program, double canvasWidthMM, double canvasHeightMM) {
+		MessageDigest digest = Sha256.newDigest();
+		digest.update(ByteBuffer.allocate(2*Double.BYTES).putDouble(canvasWidthMM).putDouble(canvasHeightMM).array());
+		digest.update(program.getBytes(StandardCharsets.UTF_8));
+		return new Key(digest.digest());
+	}
+
+	public synchronized Entry get(Key key) {
+		Entry entry = entries.get(key);
+		if(entry!=null) {
+			hits++;
+		}else {
+			misses++;
+		}
+		return entry;
+	}
+
+	/**
+	 * Adds a compiled program, replacing the one with the same key, and
+	 * returns its entry.
+	 */
+	public synchronized Entry put(Key key, DisplayList displayList) {
+		Entry entry = new Entry(displayList, displayList.getStoredPrimitiveCount()*SegmentBuffer.BYTES_PER_PRIMITIVE);
+		Entry previous = entries.put(key, entry);
+		if(previous!=null) totalBytes -= previous.bytes;
+		totalBytes += entry.bytes;
+		evict();
+		return entry;
+	}
+
+	/**
+	 * Returns the entry of the program, compiling it with the given compiler
+	 * on a miss. The compilation runs outside the lock, so two threads missing
+	 * the same program both compile it. The compiler can be stopped from
+	 * another thread, a stopped compilation is not cached and ends with a
+	 * {@link CancellationException}.
+	 */
+	public Entry compile(String program, TurtleCompiler compiler, double canvasWidthMM, double canvasHeightMM) {
+		Key key = key(program, canvasWidthMM, canvasHeightMM);
+		Entry entry = get(key);
+		if(entry!=null) return entry;
+
+		ProgramContext tree = TurtleCompiler.parse(program);
+		DisplayList displayList = compiler.compile(tree);
+		if(compiler.isStopped()) throw new CancellationException("compilation stopped");
+		return put(key, displayList);
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		totalBytes = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getBytes() {
+		return totalBytes;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	//drops the least recently used entries until the rest fits, the newest one is always kept
+	private void evict() {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while(totalBytes>maxBytes && entries.size()>1) {
+			Entry eldest = iterator.next();
+			totalBytes -= eldest.bytes;
+			iterator.remove();
+		}
+	}
+}
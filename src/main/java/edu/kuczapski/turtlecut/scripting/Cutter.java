@@ -1,5 +1,6 @@
 package edu.kuczapski.turtlecut.scripting;
 
+import java.awt.AlphaComposite;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Font;
@@ -12,39 +13,32 @@ import java.awt.image.ColorModel;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.function.Consumer;
 import java.util.function.DoubleConsumer;
 
 import javax.imageio.ImageIO;
 
-import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.ConsoleErrorListener;
-import org.antlr.v4.runtime.tree.ParseTree;
-import org.antlr.v4.runtime.tree.RuleNode;
-import org.antlr.v4.runtime.tree.TerminalNode;
-import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
 
-import edu.kuczapski.turtlecut.scripting.TurtleParser.CoordinateContext;
-import edu.kuczapski.turtlecut.scripting.TurtleParser.CutContext;
-import edu.kuczapski.turtlecut.scripting.TurtleParser.DegreesContext;
-import edu.kuczapski.turtlecut.scripting.TurtleParser.DrawContext;
-import edu.kuczapski.turtlecut.scripting.TurtleParser.EndCoordinateContext;
-import edu.kuczapski.turtlecut.scripting.TurtleParser.LengthContext;
-import edu.kuczapski.turtlecut.scripting.TurtleParser.LineContext;
-import edu.kuczapski.turtlecut.scripting.TurtleParser.MovetoContext;
+import edu.kuczapski.turtlecut.profiling.CanvasUpdateEvent;
+import edu.kuczapski.turtlecut.profiling.ClearCanvasEvent;
+import edu.kuczapski.turtlecut.profiling.JobContext;
+import edu.kuczapski.turtlecut.profiling.RasterizeEvent;
 import edu.kuczapski.turtlecut.scripting.TurtleParser.ProgramContext;
-import edu.kuczapski.turtlecut.scripting.TurtleParser.RepeateContext;
-import edu.kuczapski.turtlecut.scripting.TurtleParser.SetCanvasContext;
-import edu.kuczapski.turtlecut.scripting.TurtleParser.StartCoordinateContext;
 
-public class Cutter extends TurtleBaseVisitor<Object>{
+public class Cutter {
 	
 	private static final double LABELS_FONT_HEIGHT_MM = 3.5;
-	private static final BasicStroke HIGHLIGHT_STROKE = new BasicStroke(4.0f);
 	private static final BasicStroke DEFAULT_STROKE = new BasicStroke(0);
 	
+	public static final int TILE_SIZE = 64;
+	//pixels around a segment that its stroke may touch
+	private static final int DIRTY_MARGIN = 2;
+	
 	private BufferedImage turtleImage;
 
 	public enum CursorState{
@@ -64,33 +58,54 @@ public class Cutter extends TurtleBaseVisitor<Object>{
 	private double pixelSizeMM;
 
 	private BufferedImage image;
+	
+	private BufferedImage background;
+	private double backgroundWidthMM;
+	private double backgroundHeightMM;
+	
+	//tiles changed since the last update, and tiles that differ from the background
+	private int tileColumns;
+	private int tileRows;
+	private boolean[] dirtyTiles;
+	private boolean[] drawnTiles;
+	private boolean resetPending;
 
 	private Graphics2D graphics;
 	
-	private Vector2D curPos;
+	private double curX;
+	private double curY;
 	private double curAngle;
 	
-	private CursorState curState = CursorState.IDLE;
-	
-	private Consumer<BufferedImage> drawingListener = null;
+	private Consumer<CanvasUpdate> drawingListener = null;
 
-	private boolean stopExecution = false;
-	private int currentLine;
+	//of the job being executed, each job gets its own so stopping one cannot be undone by the next
+	private volatile CancellationToken cancellation = new CancellationToken();
 	
 	private boolean animateDrawing = false;
 	private double spentTimeBudgetSec = 0;
-	private long startNanos;
+	
+	//timeline time of the frame being rendered, advances with the frame clock scaled by the playback speed
+	private FrameClock frameClock;
+	private double frameTimeSec;
+	private double lastFrameElapsedSec;
+	private volatile double frameRate = FrameClock.DEFAULT_FRAME_RATE;
+	private volatile double playbackSpeed = 1;
 	
 	private double drawingSpeed = 20;
 	private double turningSpeed = 4;
-	private double maxCanvasWidthMM;
-	private double maxCanvasHeightMM;
+	private final double maxCanvasWidthMM;
+	private final double maxCanvasHeightMM;
 	private double minCanvasWidthMM;
 	private double minCanvasHeightMM;
 	private int graphicsHeight;
 	private int graphicsWidth;
 	
-	private final GCodeGenerator gcodeGenerator;
+	private volatile DisplayList displayList;
+	
+	//the editor sends the whole program after every edit, only the edited blocks are parsed again
+	private final IncrementalParser parser = new IncrementalParser();
+	//programs already compiled, for undo and for exporting what was just previewed
+	private final CompileCache cache = new CompileCache(CompileCache.DEFAULT_MAX_BYTES);
 	
 	public Cutter(double canvasWidthMM, double canvasHeightMM, double pixelSizeMM) {
 		this.canvasWidthMM = canvasWidthMM;
@@ -104,18 +119,12 @@ public class Cutter extends TurtleBaseVisitor<Object>{
 		this.pixelSizeMM = pixelSizeMM;
 		
 		
-		this.gcodeGenerator = new GCodeGenerator(canvasWidthMM, canvasHeightMM);
-		
 		try {
 			this.turtleImage = ImageIO.read(new File("turtle.png"));
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		
-		image = new BufferedImage((int)(canvasWidthMM / pixelSizeMM), (int)(canvasHeightMM/pixelSizeMM), BufferedImage.TYPE_4BYTE_ABGR);
-		
-		this.graphics =  (Graphics2D) image.getGraphics();
-		
 		clearCanvas();
 
 	}
@@ -140,11 +149,24 @@ public class Cutter extends TurtleBaseVisitor<Object>{
 
 	}
 	
+	//stops the job being executed, use a token per job to stop a given one
 	public void setStopExecution() {
-		this.stopExecution = true;
+		cancellation.cancel();
+	}
+	
+	public void setFrameRate(double frameRate) {
+		this.frameRate = frameRate;
+	}
+	
+	/**
+	 * Multiplies the speed of the animated playback, the number of frames
+	 * rendered per second stays the same.
+	 */
+	public void setPlaybackSpeed(double playbackSpeed) {
+		this.playbackSpeed = playbackSpeed;
 	}
 	
-	public void setDrawingListener(Consumer<BufferedImage> drawingListener) {
+	public void setDrawingListener(Consumer<CanvasUpdate> drawingListener) {
 		this.drawingListener = drawingListener;
 	}
 	
@@ -154,15 +176,16 @@ public class Cutter extends TurtleBaseVisitor<Object>{
 		}
 	}
 	
-	public void drawTurtle(Graphics2D graphics, Vector2D position, double angle) {
+	/**
+	 * Draws the turtle sprite centered at the given canvas pixel position, on
+	 * top of the current transform of the graphics.
+	 */
+	public void drawTurtle(Graphics2D graphics, double px, double py, double angle) {
+		if(turtleImage==null) return;
 		AffineTransform prevTransform = graphics.getTransform();
 		try {
-			int px = (int) ((position.getX()+BORDER) / pixelSizeMM);
-			int py = (int) (graphicsHeight -  (position.getY() - BORDER) / pixelSizeMM);
-			AffineTransform affineTransform = new  AffineTransform();
-			affineTransform.translate(px, py);
-			affineTransform.rotate(-(angle - Math.PI / 2));
-			graphics.setTransform(affineTransform);
+			graphics.translate((int) px, (int) py);
+			graphics.rotate(-(angle - Math.PI / 2));
 			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
 			graphics.drawImage(turtleImage, -turtleImage.getWidth()/2, -turtleImage.getHeight()/2, null);
 		}finally {
@@ -171,54 +194,246 @@ public class Cutter extends TurtleBaseVisitor<Object>{
 		
 	}
 	
-	public void execute(String program, double speedMMPS, int currentLine) {
+	public void execute(String program, double speedMMPS) {
+		execute(program, speedMMPS, new CancellationToken());
+	}
+	
+	/**
+	 * Compiles and renders the program unless the token is cancelled first,
+	 * a cancelled job leaves the last complete image to the listener.
+	 */
+	public void execute(String program, double speedMMPS, CancellationToken cancellation) {
+		
+		long previousJob = JobContext.enter(cancellation.id);
+		try {
+			executeJob(program, speedMMPS, cancellation);
+		}finally {
+			JobContext.exit(previousJob);
+		}
+	}
+	
+	private void executeJob(String program, double speedMMPS, CancellationToken cancellation) {
 		
-		this.stopExecution = false;
-		this.currentLine = currentLine;
+		this.cancellation = cancellation;
 		this.drawingSpeed = speedMMPS;
 		
-		CharStream input = CharStreams.fromString(program);    
-        TurtleLexer lexer = new TurtleLexer(input);
-        lexer.addErrorListener(new ConsoleErrorListener());
-        
-        CommonTokenStream tokens = new CommonTokenStream(new FilteredTokenSource(lexer));
-        
-        TurtleParser parser = new TurtleParser(tokens);
-        parser.addErrorListener(new ConsoleErrorListener());  
-      
-        
-        TurtleParser.ProgramContext tree = parser.program();
-
-        visitProgram(tree);
+		CompileCache.Key key = CompileCache.key(program, maxCanvasWidthMM, maxCanvasHeightMM);
+		CompileCache.Entry entry = cache.get(key);
+		DisplayList displayList;
+		if(entry!=null) {
+			displayList = entry.getDisplayList();
+		}else {
+			TurtleCompiler compiler = new TurtleCompiler(maxCanvasWidthMM, maxCanvasHeightMM);
+			cancellation.onCancel(compiler::setStopExecution);
+			ProgramContext tree = parser.parse(program, ConsoleErrorListener.INSTANCE);
+			displayList = compiler.compile(tree);
+			//a stopped compilation is incomplete and is not cached
+			if(cancellation.isCancelled() || compiler.isStopped()) return;
+			cache.put(key, displayList);
+		}
+		if(cancellation.isCancelled()) return;
+		this.displayList = displayList;
+		
+		render(displayList);
 
-        if(!stopExecution) {
-        	notifyDrawingListeners();
-        }
-        
-     
+		if(!cancellation.isCancelled()) {
+			notifyDrawingListeners();
+		}
 	}
 	
+	private void render(DisplayList displayList) {
+		RasterizeEvent event = new RasterizeEvent();
+		event.begin();
+		animateDrawing = false;
+		setCanvasSize(displayList.getCanvasWidthMM(), displayList.getCanvasHeightMM());
+		animateDrawing = drawingSpeed>0;
+		frameClock = new FrameClock(frameRate);
+		frameTimeSec = 0;
+		lastFrameElapsedSec = 0;
+		spentTimeBudgetSec = 0;
+		
+		displayList.replay(primitive->{
+			if(cancellation.isCancelled()) return false;
+			
+			switch(primitive.kind) {
+				case MOVE:
+					curX = primitive.x2;
+					curY = primitive.y2;
+					break;
+				case TURN:
+					turn(primitive.startAngle, primitive.turnAngle);
+					break;
+				case LINE:
+					curX = primitive.x1;
+					curY = primitive.y1;
+					if(primitive.mode == CursorState.CUTTING || primitive.mode == CursorState.DRAWING) {
+						synchronized (image) {
+							drawLine(primitive.x1, primitive.y1, primitive.x2, primitive.y2, getCurentDrawingColor(primitive.mode), DEFAULT_STROKE);
+						}
+					}
+					curX = primitive.x2;
+					curY = primitive.y2;
+					break;
+				case ARC:
+					if(primitive.mode == CursorState.CUTTING || primitive.mode == CursorState.DRAWING) {
+						drawArc(primitive, getCurentDrawingColor(primitive.mode));
+					}
+					curX = primitive.x1;
+					curY = primitive.y1;
+					break;
+				default:
+					break;
+			}
+			return true;
+		});
+		event.finish(0, displayList.getSegmentCount(), cancellation.isCancelled());
+	}
 	
 	private void notifyDrawingListeners() {
+		if(drawingListener==null) return;
+		
+		CanvasUpdateEvent event = new CanvasUpdateEvent();
+		event.begin();
+		CanvasUpdate update;
 		synchronized (image) {
-			BufferedImage image = deepCopy(this.image);
-			drawTurtle((Graphics2D)image.getGraphics(),curPos, curAngle);
-			if(drawingListener!=null) {
-				drawingListener.accept(image);
+			List<CanvasUpdate.Tile> tiles = new ArrayList<>();
+			for(int row=0;row<tileRows;row++) {
+				for(int column=0;column<tileColumns;column++) {
+					int index = row*tileColumns + column;
+					if(!resetPending && !dirtyTiles[index]) continue;
+					dirtyTiles[index] = false;
+					tiles.add(copyTile(column*TILE_SIZE, row*TILE_SIZE));
+				}
+			}
+			
+			double turtleX = (curX+BORDER) / pixelSizeMM;
+			double turtleY = graphicsHeight -  (curY - BORDER) / pixelSizeMM;
+			
+			update = new CanvasUpdate(image.getWidth(), image.getHeight(), resetPending, tiles, turtleX, turtleY, curAngle,
+					pixelSizeMM, BORDER, canvasHeightMM, displayList, cancellation.id);
+			resetPending = false;
+		}
+		event.tiles = update.tiles.size();
+		event.reset = update.reset;
+		event.finish(0, 0, cancellation.isCancelled());
+		drawingListener.accept(update);
+	}
+	
+	private CanvasUpdate.Tile copyTile(int x, int y) {
+		int width = Math.min(TILE_SIZE, image.getWidth() - x);
+		int height = Math.min(TILE_SIZE, image.getHeight() - y);
+		ColorModel cm = image.getColorModel();
+		WritableRaster raster = cm.createCompatibleWritableRaster(width, height);
+		image.getSubimage(x, y, width, height).copyData(raster);
+		return new CanvasUpdate.Tile(x, y, new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null));
+	}
+	
+	//marks the tiles touched by a segment given in mm, sampled often enough that every pixel of the stroke is covered by a margin box
+	private void markDirty(double p1x, double p1y, double p2x, double p2y) {
+		if(dirtyTiles==null) return;
+		
+		int offset = (int) (BORDER/ pixelSizeMM);
+		double x1 = offset + p1x / pixelSizeMM;
+		double y1 = offset + (canvasHeightMM - p1y) / pixelSizeMM;
+		double x2 = offset + p2x / pixelSizeMM;
+		double y2 = offset + (canvasHeightMM - p2y) / pixelSizeMM;
+		
+		int steps = (int) Math.ceil(Math.max(Math.abs(x2-x1), Math.abs(y2-y1)) / (2*DIRTY_MARGIN));
+		for(int step=0;step<=steps;step++) {
+			double t = steps==0 ? 0 : (double) step / steps;
+			int x = (int) Math.round(x1 + (x2-x1)*t);
+			int y = (int) Math.round(y1 + (y2-y1)*t);
+			
+			int minColumn = Math.max(0, (x - DIRTY_MARGIN) / TILE_SIZE);
+			int maxColumn = Math.min(tileColumns-1, (x + DIRTY_MARGIN) / TILE_SIZE);
+			int minRow = Math.max(0, (y - DIRTY_MARGIN) / TILE_SIZE);
+			int maxRow = Math.min(tileRows-1, (y + DIRTY_MARGIN) / TILE_SIZE);
+			
+			for(int row=minRow;row<=maxRow;row++) {
+				for(int column=minColumn;column<=maxColumn;column++) {
+					dirtyTiles[row*tileColumns + column] = true;
+					drawnTiles[row*tileColumns + column] = true;
+				}
 			}
 		}
 	}
 
 	private void clearCanvas() {
+		ClearCanvasEvent event = new ClearCanvasEvent();
+		event.begin();
+		
+		int width = (int) ((canvasWidthMM+2*BORDER)/ pixelSizeMM);
+		int height = (int) ((canvasHeightMM+2*BORDER)/ pixelSizeMM);
+		
+		if(this.graphics!=null) {
+			this.graphics.dispose();
+			this.graphics = null;
+		}
+		
+		boolean backgroundChanged = false;
+		if(background==null || backgroundWidthMM!=canvasWidthMM || backgroundHeightMM!=canvasHeightMM) {
+			background = renderBackground();
+			backgroundWidthMM = canvasWidthMM;
+			backgroundHeightMM = canvasHeightMM;
+			backgroundChanged = true;
+		}
+		
+		Graphics2D imageGraphics;
+		if(backgroundChanged || image==null || image.getWidth()!=width || image.getHeight()!=height) {
+			image = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+			
+			tileColumns = (width + TILE_SIZE - 1) / TILE_SIZE;
+			tileRows = (height + TILE_SIZE - 1) / TILE_SIZE;
+			dirtyTiles = new boolean[tileColumns*tileRows];
+			drawnTiles = new boolean[tileColumns*tileRows];
+			resetPending = true;
+			
+			imageGraphics = image.createGraphics();
+			imageGraphics.setComposite(AlphaComposite.Src);
+			imageGraphics.drawImage(background, 0, 0, null);
+		}else {
+			//only the tiles something was drawn on need the cached grid and labels again
+			imageGraphics = image.createGraphics();
+			imageGraphics.setComposite(AlphaComposite.Src);
+			for(int index=0;index<drawnTiles.length;index++) {
+				if(!drawnTiles[index]) continue;
+				int x = (index % tileColumns) * TILE_SIZE;
+				int y = (index / tileColumns) * TILE_SIZE;
+				int x2 = Math.min(x+TILE_SIZE, width);
+				int y2 = Math.min(y+TILE_SIZE, height);
+				imageGraphics.drawImage(background, x, y, x2, y2, x, y, x2, y2, null);
+				dirtyTiles[index] = true;
+				event.tilesRestored++;
+			}
+		}
+		Arrays.fill(drawnTiles, false);
+		imageGraphics.setComposite(AlphaComposite.SrcOver);
+		imageGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+		
+		this.graphicsHeight = (int) ((canvasHeightMM)/ pixelSizeMM);
+		this.graphicsWidth = (int) ((canvasWidthMM)/ pixelSizeMM);
+		
+		this.graphics = (Graphics2D) imageGraphics.create((int) (BORDER/ pixelSizeMM), (int) (BORDER/ pixelSizeMM), graphicsWidth+1, graphicsHeight+1);
+		imageGraphics.dispose();
+		
+		this.curX = canvasWidthMM / 2;
+		this.curY = canvasHeightMM / 2;
+		this.curAngle = Math.PI / 2;
 		
-		gcodeGenerator.init(canvasWidthMM, canvasHeightMM);
+		event.backgroundDrawn = backgroundChanged;
+		event.finish(0, 0, false);
+	}
+	
+	//draws the worksheet with the grid and the ruler labels, it only depends on the canvas size and the pixel size
+	private BufferedImage renderBackground() {
 		
 		this.graphicsHeight = (int) ((canvasHeightMM+2*BORDER)/ pixelSizeMM);
 		this.graphicsWidth = (int) ((canvasWidthMM+2*BORDER)/ pixelSizeMM);
 		
-		image = new BufferedImage(graphicsWidth, graphicsHeight, BufferedImage.TYPE_4BYTE_ABGR);
+		BufferedImage background = new BufferedImage(graphicsWidth, graphicsHeight, BufferedImage.TYPE_4BYTE_ABGR);
 	
-		this.graphics =  (Graphics2D) image.getGraphics();
+		Graphics2D backgroundGraphics = (Graphics2D) background.getGraphics();
+		this.graphics = backgroundGraphics;
 
 		graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);	
 		
@@ -247,141 +462,54 @@ public class Cutter extends TurtleBaseVisitor<Object>{
 		this.graphicsHeight = (int) ((canvasHeightMM)/ pixelSizeMM);
 		this.graphicsWidth = (int) ((canvasWidthMM)/ pixelSizeMM);
 		
-		this.graphics = (Graphics2D) graphics.create((int) (BORDER/ pixelSizeMM), (int) (BORDER/ pixelSizeMM), graphicsWidth+1, graphicsHeight+1);
+		this.graphics = (Graphics2D) backgroundGraphics.create((int) (BORDER/ pixelSizeMM), (int) (BORDER/ pixelSizeMM), graphicsWidth+1, graphicsHeight+1);
 		graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
 		
 		this.graphics.setColor(WORKSHEET_COLOR);
-		this.graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
-		
-		this.curPos = new Vector2D(canvasWidthMM / 2,  canvasHeightMM / 2);
-		this.curAngle = Math.PI / 2;
-		
+		this.graphics.fillRect(0, 0, background.getWidth(), background.getHeight());
 		
 		for(int x=0;x<canvasWidthMM;x+=1) {
-			drawLine(x, 0, x, canvasHeightMM, x%10 == 0 ? MAJOR_GRID_COLOR : MINOR_GRID_COLOR, null);
+			drawGridLine(x, 0, x, canvasHeightMM, x%10 == 0 ? MAJOR_GRID_COLOR : MINOR_GRID_COLOR);
 		}
 		
 		for(int y=0;y<canvasHeightMM;y+=1) {
-			drawLine( 0, y, canvasWidthMM, y , y%10 == 0 ? MAJOR_GRID_COLOR : MINOR_GRID_COLOR, null);
+			drawGridLine( 0, y, canvasWidthMM, y , y%10 == 0 ? MAJOR_GRID_COLOR : MINOR_GRID_COLOR);
 		}
 		
-	}
-	
-	@Override
-	public Object visitProgram(ProgramContext ctx) {
-		if(stopExecution) return null;
-		animateDrawing = false;
-		setCanvasSize(maxCanvasWidthMM, maxCanvasHeightMM);
-		animateDrawing = drawingSpeed>0;
-		startNanos = System.nanoTime();
-		spentTimeBudgetSec = 0;
-		return super.visitProgram(ctx);
-	}
-
-	@Override
-	protected boolean shouldVisitNextChild(RuleNode node, Object currentResult) {
-		if(stopExecution) return false;
-		return super.shouldVisitNextChild(node, currentResult);
-	}
-
-	@Override
-	public Object visitRepeate(RepeateContext ctx) {
-		if(stopExecution) return null;
-		
-		TerminalNode countToken = ctx.NUM();
+		this.graphics.dispose();
+		this.graphics = null;
+		backgroundGraphics.dispose();
 		
-		int count = Integer.parseInt(countToken.getText());
-		
-		for(int i=0;i<count;i++) {
-			visitCommandBlock(ctx.commandBlock());
-		}
-		
-		return null;
+		return background;
 	}
 	
-	@Override
-	public Object visitCut(CutContext ctx) {
-		if(stopExecution) return null;
-		
-		CursorState prevState = curState;
-		try {
-			curState = CursorState.CUTTING;
-			return super.visitCut(ctx);
-		}finally {
-			curState = prevState;
+	private void turn(double startAngle, double turnAngle) {	
+		//the frames are only drawn when animating, the lambda is not even created otherwise
+		if(animateDrawing) {
+			animate( Math.abs(turnAngle)/turningSpeed, progress->{
+				curAngle = startAngle + turnAngle*progress;
+			});
 		}
-	}
-
-	@Override
-	public Object visitDraw(DrawContext ctx) {
-		if(stopExecution) return null;
 		
-		CursorState prevState = curState;
-		try {
-			curState = CursorState.DRAWING;
-			return super.visitDraw(ctx);
-		}finally {
-			curState = prevState;
-		}
+		curAngle = startAngle + turnAngle;
 	}
-	
-	@Override
-	public Object visitLine(LineContext ctx) {
-		if(stopExecution) return null;
-		
-		curPos = visitStartCoordinate(ctx.startCoordinate());
-		
-		Vector2D endPos = visitEndCoordinate(ctx.endCoordinate());
-		
-		Vector2D dir = endPos.subtract(curPos);
-		double newAngle =  Math.atan2(dir.getY(), dir.getX());
-		if(Double.isFinite(newAngle)) {
-			
-			turnTo(newAngle);
-			//curAngle = newAngle;
-		}
-			
-		if(curState == CursorState.CUTTING || curState == CursorState.DRAWING) {
+
+	//flattened so that the chords stay within half a pixel of the arc
+	private void drawArc(DisplayList.Primitive arc, Color color) {
+		int chords = arc.getChordCount(pixelSizeMM/2);
+		double x = arc.getArcX(0);
+		double y = arc.getArcY(0);
+		for(int i=1;i<=chords && !cancellation.isCancelled();i++) {
+			double nextX = arc.getArcX((double) i/chords);
+			double nextY = arc.getArcY((double) i/chords);
 			synchronized (image) {
-				if(ctx.getStart().getLine()<=currentLine && ctx.getStop().getLine()>=currentLine) {
-					drawLine(curPos, endPos, getCurentDrawingColor(), HIGHLIGHT_STROKE);
-				}else {
-					drawLine(curPos, endPos, getCurentDrawingColor(), DEFAULT_STROKE);
-				}
-				
-				if(curState == CursorState.CUTTING) {
-                    gcodeGenerator.cutLine(curPos.getX(), curPos.getY(), endPos.getX(), endPos.getY());
-				}else if(curState == CursorState.DRAWING) {
-					gcodeGenerator.burnLine(curPos.getX(), curPos.getY(), endPos.getX(), endPos.getY());
-				}
+				drawLine(x, y, nextX, nextY, color, DEFAULT_STROKE);
 			}
+			x = nextX;
+			y = nextY;
 		}
-		
-		curPos = endPos;
-			
-		return null;
-	}
-
-	private void turnTo(double newAngle) {	
-		
-		double dif = newAngle-curAngle;
-		
-		if(dif>Math.PI) dif = dif - 2*Math.PI;
-		if(dif<-Math.PI) dif = dif + 2*Math.PI;
-		
-		double _dif = dif;
-		
-		double prevAngle = curAngle;
-		animate( Math.abs(dif)/turningSpeed, progress->{
-			curAngle = prevAngle + _dif*progress;
-		});
-		
-		curAngle = newAngle;
-	}
-
-	private void drawLine(Vector2D p1, Vector2D p2, Color color, Stroke stroke) {
-		drawLine(p1.getX(), p1.getY(), p2.getX(), p2.getY(), color, stroke);
 	}
+	
 	private void drawLine(double p1x, double p1y, double p2x, double p2y, Color color, Stroke stroke) {
 		
 		double timeNeeded = Math.sqrt((p2x-p1x)*(p2x-p1x) + (p2y-p1y)*(p2y-p1y)) / drawingSpeed;
@@ -394,25 +522,30 @@ public class Cutter extends TurtleBaseVisitor<Object>{
 			if(color!=null)	graphics.setColor(color);
 			if(stroke!=null) graphics.setStroke(stroke);
 			
-			animate(timeNeeded, progress->{
-				double p3x = p1x + (p2x - p1x) * progress;
-				double p3y = p1y + (p2y - p1y) * progress;
-
-				curPos = new Vector2D(p3x, p3y);
-
-				graphics.drawLine( 
-						(int)Math.round(p1x / pixelSizeMM), 
-						(int)Math.round((canvasHeightMM - p1y) / pixelSizeMM),
-						(int)Math.round(p3x / pixelSizeMM),
-						(int)Math.round((canvasHeightMM - p3y) / pixelSizeMM)
-						);
-
-				notifyDrawingListeners();
-
-				restoreCurrentState();
-			});
-			
+			if(animateDrawing) {
+				//end of the part drawn by the previous frames, each frame only adds the part since then
+				double[] drawn = {p1x, p1y};
+				animate(timeNeeded, progress->{
+					double p3x = p1x + (p2x - p1x) * progress;
+					double p3y = p1y + (p2y - p1y) * progress;
+
+					curX = p3x;
+					curY = p3y;
+
+					graphics.drawLine( 
+							(int)Math.round(drawn[0] / pixelSizeMM), 
+							(int)Math.round((canvasHeightMM - drawn[1]) / pixelSizeMM),
+							(int)Math.round(p3x / pixelSizeMM),
+							(int)Math.round((canvasHeightMM - p3y) / pixelSizeMM)
+							);
+					markDirty(drawn[0], drawn[1], p3x, p3y);
+					drawn[0] = p3x;
+					drawn[1] = p3y;
+				});
+			}
 			
+			//the whole segment once more, so the pixels do not depend on how the frames split it
+			markDirty(p1x, p1y, p2x, p2y);
 			graphics.drawLine( 
 					(int)Math.round(p1x / pixelSizeMM), 
 					(int)Math.round((canvasHeightMM - p1y) / pixelSizeMM),
@@ -423,9 +556,17 @@ public class Cutter extends TurtleBaseVisitor<Object>{
 			graphics.setColor(prevColor);
 			graphics.setStroke(prevStroke);
 		}
+	}
 	
-		
-		if(animateDrawing) notifyDrawingListeners();
+	//for the background, which is not the live canvas, so no tile is marked dirty and nothing is animated
+	private void drawGridLine(double p1x, double p1y, double p2x, double p2y, Color color) {
+		graphics.setColor(color);
+		graphics.drawLine( 
+				(int)Math.round(p1x / pixelSizeMM), 
+				(int)Math.round((canvasHeightMM - p1y) / pixelSizeMM),
+				(int)Math.round(p2x / pixelSizeMM),
+				(int)Math.round((canvasHeightMM - p2y) / pixelSizeMM)
+		);
 	}
 	
 	private void drawText(double p1x, double p1y,  String text) {
@@ -442,148 +583,83 @@ public class Cutter extends TurtleBaseVisitor<Object>{
 				(int)Math.round(p1x / pixelSizeMM) - textLength/2, 
 				(int)Math.round(graphicsHeight -  p1y / pixelSizeMM) + textHeight/2
 				);
-
-
-
-		if(animateDrawing) notifyDrawingListeners();
 	}
 	
+	/**
+	 * Plays one step of the timeline. The drawer gets the progress of the step
+	 * at each frame that falls inside it, the step itself is drawn completely
+	 * by the caller afterwards, so steps shorter than a frame cost no frame.
+	 */
 	private void animate(double timeNeeded, DoubleConsumer drawer) {
-		if(animateDrawing) {
-			double progress = 0;
-			do {
-				if(stopExecution) return;
-				double timeElapsedSec = (System.nanoTime() - startNanos) / 1e9; 
-				double elapsedLocalTimeBudget = timeElapsedSec - spentTimeBudgetSec;
-				progress = elapsedLocalTimeBudget / timeNeeded;
-				if(progress<0) progress = 0;
+		if(!animateDrawing) return;
+		
+		double endTimeSec = spentTimeBudgetSec + timeNeeded;
+		while(frameTimeSec < endTimeSec) {
+			if(cancellation.isCancelled()) return;
 			
-				if(progress<1.0) {
-					storeCurrentState();
-					
-					drawer.accept(progress);
-					
-					notifyDrawingListeners();
-					
-					restoreCurrentState();
-					
-				}
-				
-			}while(progress<1.0);
+			drawer.accept((frameTimeSec - spentTimeBudgetSec) / timeNeeded);
+			notifyDrawingListeners();
 			
-			spentTimeBudgetSec += timeNeeded;
+			double elapsedSec = frameClock.awaitNextFrame();
+			frameTimeSec += (elapsedSec - lastFrameElapsedSec) * playbackSpeed;
+			lastFrameElapsedSec = elapsedSec;
 		}
-	}
-	private void restoreCurrentState() {
-		// TODO Auto-generated method stub
-		
-		
-	}
-
-	private void storeCurrentState() {
-		// TODO Auto-generated method stub
+		spentTimeBudgetSec = endTimeSec;
 	}
 
-	private Color getCurentDrawingColor() {
-		switch (curState) {
+	private Color getCurentDrawingColor(CursorState mode) {
+		switch (mode) {
 			case CUTTING: return CUT_COLOR;
 			case DRAWING: return DRAW_COLOR;
 	
 			default: return new Color(0, true);
 		}
 	}
+	
+	public static BufferedImage deepCopy(BufferedImage bi) {
+		  ColorModel cm = bi.getColorModel();
+		  boolean isAlphaPremultiplied = cm.isAlphaPremultiplied();
+		  WritableRaster raster = bi.copyData(bi.getRaster().createCompatibleWritableRaster());
+		  return new BufferedImage(cm, raster, isAlphaPremultiplied, null);
+	}
 
-	@Override
-	public Object visitMoveto(MovetoContext ctx) {
-		curPos = visitCoordinate(ctx.coordinate());
-		return null;
+	public String generateGCode(String program) {
+		return generateGCode(program, createGCodeGenerator());
 	}
 	
-	
-	@Override
-	public Vector2D visitCoordinate(CoordinateContext ctx) {
-		return new Vector2D(
-					Double.parseDouble(ctx.NUM(0).getText())*10,
-					Double.parseDouble(ctx.NUM(1).getText())*10
-				);
+	//compiles the program and emits it with a generator configured by the caller
+	public String generateGCode(String program, GCodeGenerator generator) {
+		return compileCached(program).getGCode(generator);
 	}
 	
-	@Override
-	public Vector2D visitStartCoordinate(StartCoordinateContext ctx) {
-		if(ctx!=null &&  ctx.coordinate()!=null) {
-			return visitCoordinate(ctx.coordinate());
-		}else {
-			return curPos;
-		}
+	//same as generateGCode, streaming the commands to the writer instead of building a string
+	public void writeGCode(String program, GCodeGenerator generator, Writer writer) throws IOException {
+		compileCached(program).writeGCode(generator, writer);
 	}
 	
-	
-	@Override
-	public Vector2D visitEndCoordinate(EndCoordinateContext ctx) {
-		if( ctx.coordinate()!=null) {
-			return visitCoordinate(ctx.coordinate());
-		}else {
-			double degrees = visitDegrees(ctx.degrees());
-			visitLength(ctx.length());
-			double length = visitLength(ctx.length());
-			
-			double dirAngle = curAngle + Math.toRadians(degrees);
-			
-			return curPos.add(new Vector2D(length * Math.cos(dirAngle), length*Math.sin(dirAngle)));
-		}
+	//the editor parser is left to the rendering thread, a miss here is parsed from scratch
+	private CompileCache.Entry compileCached(String program) {
+		return cache.compile(program, new TurtleCompiler(maxCanvasWidthMM, maxCanvasHeightMM), maxCanvasWidthMM, maxCanvasHeightMM);
 	}
 	
-	@Override
-	public Double visitLength(LengthContext ctx) {
-		  double lenght = Double.parseDouble(ctx.NUM().toString());
-		
-		  if(ctx.children.size()>1) {
-			  ParseTree uom = ctx.children.get(1);
-			  switch (uom.getText().toLowerCase()) {
-				case "mm": lenght *= 1;
-				break;
-				case "cm": lenght *= 10;
-				break;
-				
-				default: lenght *= 10;
-			  }
-		  }
-		  
-		  return lenght;
-	}
-	
-	@Override
-	public Double visitDegrees(DegreesContext ctx) {
-		if(ctx.NUM()!=null) {
-			return Double.parseDouble(ctx.NUM().getText());
-		}else {
-			 switch(ctx.getText().toLowerCase()) {
-			 	case "stanga": return 90.0;
-			 	case "dreapta": return -90.0;
-			 	case "inainte": return 0.0;
-			 	default: throw new IllegalArgumentException("Unknown direction: "+ctx.start.toString());
-			 }
-		}
+	/**
+	 * Prepares an export of the program that does not use the state of this
+	 * cutter, it can run on another thread while the preview renders.
+	 */
+	public GCodeExport createExport(String program, GCodeGenerator generator) {
+		return new GCodeExport(cache, program, generator, maxCanvasWidthMM, maxCanvasHeightMM);
 	}
 	
-	@Override
-	public Object visitSetCanvas(SetCanvasContext ctx) {
-		if(ctx.length().size()==2) {
-			setCanvasSize(visitLength(ctx.length(0)), visitLength(ctx.length(1)));
-		}
-		return null;
+	public CompileCache getCompileCache() {
+		return cache;
 	}
 	
-	public static BufferedImage deepCopy(BufferedImage bi) {
-		  ColorModel cm = bi.getColorModel();
-		  boolean isAlphaPremultiplied = cm.isAlphaPremultiplied();
-		  WritableRaster raster = bi.copyData(bi.getRaster().createCompatibleWritableRaster());
-		  return new BufferedImage(cm, raster, isAlphaPremultiplied, null);
+	public GCodeGenerator createGCodeGenerator() {
+		return new GCodeGenerator(maxCanvasWidthMM, maxCanvasHeightMM);
 	}
-
-	public String generateGCode(String program) {
-		execute(program, 0, 0);
-		return gcodeGenerator.generate();
+	
+	public DisplayList getDisplayList() {
+		return displayList;
 	}
 	
 	public double getPixelSizeMM() {
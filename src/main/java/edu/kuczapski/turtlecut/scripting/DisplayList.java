@@ -0,0 +1,301 @@
+package edu.kuczapski.turtlecut.scripting;
+
+import java.util.Arrays;
+
+import edu.kuczapski.turtlecut.scripting.Cutter.CursorState;
+
+/**
+ * Immutable result of compiling a Turtle program: the canvas size and the
+ * ordered list of moves, turns and segments the turtle performs. Every
+ * primitive keeps the source lines it was produced from, so the preview,
+ * the animation and the G-code export can all consume the same list
+ * without walking the parse tree again.
+ * <p>
+ * Repeats whose body only moves the turtle relative to itself are kept as a
+ * single {@link Kind#INSTANCE} primitive holding the body compiled once in
+ * the turtle's local frame. Use {@link #replay(PrimitiveVisitor)} to get the
+ * expanded primitives in canvas coordinates.
+ * <p>
+ * Circles are kept as {@link Kind#ARC} primitives, consumers that can not
+ * use arcs flatten them with {@link Primitive#getChordCount(double)}.
+ * <p>
+ * The primitives are stored in primitive arrays, one per field, and a
+ * replay hands them out through a single reused {@link Primitive}, so
+ * neither compiling nor replaying allocates per segment.
+ */
+public class DisplayList {
+
+	public enum Kind{
+		MOVE, TURN, LINE, ARC, INSTANCE
+	}
+
+	/**
+	 * Receives expanded primitives, returns false to stop the replay.
+	 */
+	public interface PrimitiveVisitor{
+		boolean visit(Primitive primitive);
+	}
+
+	/**
+	 * One primitive of a replay. The visitor gets the same object for every
+	 * primitive, filled again from the arrays of the list before each call,
+	 * so what it needs after the call has to be copied.
+	 */
+	public static final class Primitive{
+		public Kind kind;
+		public CursorState mode;
+
+		public double x1;
+		public double y1;
+		public double x2;
+		public double y2;
+
+		//for arcs (x1, y1) is the center, the arc starts at startAngle and sweeps turnAngle, counterclockwise when positive
+		public double startAngle;
+		public double turnAngle;
+		public double radius;
+
+		public int startLine;
+		public int stopLine;
+
+		Primitive() {
+		}
+
+		public double getLength() {
+			if(kind == Kind.ARC) return Math.abs(turnAngle)*radius;
+			return Math.sqrt((x2-x1)*(x2-x1) + (y2-y1)*(y2-y1));
+		}
+
+		//point of an arc at the given fraction of its sweep
+		public double getArcX(double fraction) {
+			return x1 + radius*Math.cos(startAngle + turnAngle*fraction);
+		}
+
+		public double getArcY(double fraction) {
+			return y1 + radius*Math.sin(startAngle + turnAngle*fraction);
+		}
+
+		/**
+		 * Number of equal chords approximating the arc so that no chord is
+		 * further than the tolerance from it.
+		 */
+		public int getChordCount(double toleranceMM) {
+			if(radius<=toleranceMM) return Math.max(1, (int) Math.ceil(Math.abs(turnAngle)/(Math.PI/2)));
+			double maxStep = 2*Math.acos(1 - toleranceMM/radius);
+			return Math.max(1, (int) Math.ceil(Math.abs(turnAngle)/maxStep));
+		}
+
+		public boolean isOnLine(int line) {
+			return startLine<=line && stopLine>=line;
+		}
+	}
+
+	//rows of the primitives produced by each source line, in the layout of a sparse matrix
+	private static final class LineIndex{
+		//the rows of line i are rows[offsets[i]] to rows[offsets[i+1]-1]
+		final int[] offsets;
+		final int[] rows;
+
+		LineIndex(int[] offsets, int[] rows) {
+			this.offsets = offsets;
+			this.rows = rows;
+		}
+	}
+
+	private final double canvasWidthMM;
+	private final double canvasHeightMM;
+
+	private final SegmentBuffer segments;
+	//built by the first replay of a line, most lists are never highlighted
+	private volatile LineIndex lineIndex;
+
+	private final int segmentCount;
+	private final double cutLengthMM;
+	private final double drawLengthMM;
+
+	DisplayList(double canvasWidthMM, double canvasHeightMM, SegmentBuffer segments) {
+		this.canvasWidthMM = canvasWidthMM;
+		this.canvasHeightMM = canvasHeightMM;
+		this.segments = segments;
+
+		long segmentCount = 0;
+		double cutLengthMM = 0;
+		double drawLengthMM = 0;
+		Primitive primitive = new Primitive();
+		for(int row=0;row<segments.size();row++) {
+			Kind kind = segments.getKind(row);
+			if(kind == Kind.INSTANCE) {
+				DisplayList body = segments.getBody(row);
+				int count = segments.getCount(row);
+				segmentCount += (long) body.segmentCount * count;
+				cutLengthMM += body.cutLengthMM * count;
+				drawLengthMM += body.drawLengthMM * count;
+				continue;
+			}
+			if(kind != Kind.LINE && kind != Kind.ARC) continue;
+			segmentCount++;
+			segments.load(row, primitive);
+			if(primitive.mode == CursorState.CUTTING) {
+				cutLengthMM += primitive.getLength();
+			}else if(primitive.mode == CursorState.DRAWING) {
+				drawLengthMM += primitive.getLength();
+			}
+		}
+		this.segmentCount = (int) Math.min(segmentCount, Integer.MAX_VALUE);
+		this.cutLengthMM = cutLengthMM;
+		this.drawLengthMM = drawLengthMM;
+	}
+
+	public double getCanvasWidthMM() {
+		return canvasWidthMM;
+	}
+
+	public double getCanvasHeightMM() {
+		return canvasHeightMM;
+	}
+
+	/**
+	 * Returns the number of top level primitives, instances are not expanded.
+	 */
+	public int getPrimitiveCount() {
+		return segments.size();
+	}
+
+	//primitives held in memory, with those of the instance bodies counted once
+	long getStoredPrimitiveCount() {
+		long count = segments.size();
+		for(int row=0;row<segments.size();row++) {
+			if(segments.getKind(row) == Kind.INSTANCE) count += segments.getBody(row).getStoredPrimitiveCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Feeds every primitive, with instances expanded, in program order and in
+	 * canvas coordinates. Returns false if the visitor stopped the replay.
+	 */
+	public boolean replay(PrimitiveVisitor visitor) {
+		return replay(0, 0, 0, 0, new Primitive(), visitor);
+	}
+
+	/**
+	 * Same as {@link #replay(PrimitiveVisitor)}, limited to the primitives
+	 * produced by the given (1 based) source line.
+	 */
+	public boolean replayLine(int line, PrimitiveVisitor visitor) {
+		if(line<=0) return true;
+		return replay(line, 0, 0, 0, new Primitive(), visitor);
+	}
+
+	//all the rows when line is 0, the primitive is filled for each visit
+	private boolean replay(int line, double x, double y, double angle, Primitive primitive, PrimitiveVisitor visitor) {
+		int[] rows = null;
+		int from = 0;
+		int to = segments.size();
+		if(line>0) {
+			LineIndex index = getLineIndex();
+			if(line>=index.offsets.length-1) return true;
+			rows = index.rows;
+			from = index.offsets[line];
+			to = index.offsets[line+1];
+		}
+
+		boolean identity = x==0 && y==0 && angle==0;
+		double cos = Math.cos(angle);
+		double sin = Math.sin(angle);
+
+		for(int i=from;i<to;i++) {
+			int row = rows==null ? i : rows[i];
+			if(segments.getKind(row) == Kind.INSTANCE) {
+				if(!replayInstance(row, line, x, y, angle, cos, sin, primitive, visitor)) return false;
+				continue;
+			}
+			if(identity) {
+				segments.load(row, primitive);
+			}else {
+				segments.load(row, x, y, angle, cos, sin, primitive);
+			}
+			if(!visitor.visit(primitive)) return false;
+		}
+		return true;
+	}
+
+	private boolean replayInstance(int row, int line, double x, double y, double angle, double cos, double sin,
+			Primitive primitive, PrimitiveVisitor visitor) {
+		DisplayList body = segments.getBody(row);
+		if(line>0 && !body.hasLine(line)) return true;
+
+		double instanceX = segments.getX(row);
+		double instanceY = segments.getY(row);
+		double deltaX = segments.getDeltaX(row);
+		double deltaY = segments.getDeltaY(row);
+		double deltaAngle = segments.getDeltaAngle(row);
+		int count = segments.getCount(row);
+
+		double ix = x + instanceX*cos - instanceY*sin;
+		double iy = y + instanceX*sin + instanceY*cos;
+		double iangle = angle + segments.getAngle(row);
+
+		for(int i=0;i<count;i++) {
+			if(!body.replay(line, ix, iy, iangle, primitive, visitor)) return false;
+
+			double icos = Math.cos(iangle);
+			double isin = Math.sin(iangle);
+			ix += deltaX*icos - deltaY*isin;
+			iy += deltaX*isin + deltaY*icos;
+			iangle += deltaAngle;
+		}
+		return true;
+	}
+
+	private boolean hasLine(int line) {
+		LineIndex index = getLineIndex();
+		return line<index.offsets.length-1 && index.offsets[line]<index.offsets[line+1];
+	}
+
+	private LineIndex getLineIndex() {
+		LineIndex index = lineIndex;
+		if(index!=null) return index;
+		synchronized (this) {
+			if(lineIndex==null) lineIndex = buildLineIndex();
+			return lineIndex;
+		}
+	}
+
+	//counts the rows of each line, then places them, a row is listed on every line it spans
+	private LineIndex buildLineIndex() {
+		int maxLine = 0;
+		for(int row=0;row<segments.size();row++) {
+			maxLine = Math.max(maxLine, segments.getStopLine(row));
+		}
+		int[] offsets = new int[maxLine+2];
+		for(int row=0;row<segments.size();row++) {
+			for(int line=Math.max(0, segments.getStartLine(row));line<=segments.getStopLine(row);line++) {
+				offsets[line+1]++;
+			}
+		}
+		for(int line=0;line<=maxLine;line++) {
+			offsets[line+1] += offsets[line];
+		}
+		int[] rows = new int[offsets[maxLine+1]];
+		int[] next = Arrays.copyOf(offsets, maxLine+1);
+		for(int row=0;row<segments.size();row++) {
+			for(int line=Math.max(0, segments.getStartLine(row));line<=segments.getStopLine(row);line++) {
+				rows[next[line]++] = row;
+			}
+		}
+		return new LineIndex(offsets, rows);
+	}
+
+	public int getSegmentCount() {
+		return segmentCount;
+	}
+
+	public double getCutLengthMM() {
+		return cutLengthMM;
+	}
+
+	public double getDrawLengthMM() {
+		return drawLengthMM;
+	}
+}
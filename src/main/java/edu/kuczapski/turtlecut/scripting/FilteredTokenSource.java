@@ -4,13 +4,26 @@ import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.TokenFactory;
 import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.misc.Pair;
 
 public class FilteredTokenSource implements TokenSource {
 	
 	private TokenSource tokenSource;
+	private final int endIndex;
+	//the first token at or after the end index, null until it is reached
+	private Token endToken;
 	
 	public FilteredTokenSource(TokenSource tokenSource) {
+		this(tokenSource, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Ends the tokens with EOF at the first token starting at or after the
+	 * given character index, to parse only a part of the input.
+	 */
+	public FilteredTokenSource(TokenSource tokenSource, int endIndex) {
 		this.tokenSource = tokenSource;
+		this.endIndex = endIndex;
 	}
 	
 
@@ -22,10 +35,23 @@ public class FilteredTokenSource implements TokenSource {
 			if(token==null) return null;
 			if(token.getType() == TurtleLexer.WS) continue;
 			if(token.getType() == TurtleLexer.UNKNOWN) continue;
+			if(token.getType() != Token.EOF && token.getStartIndex() >= endIndex) {
+				if(endToken==null) endToken = token;
+				return getTokenFactory().create(new Pair<>(this, getInputStream()), Token.EOF, null, Token.DEFAULT_CHANNEL,
+						endIndex, endIndex-1, token.getLine(), token.getCharPositionInLine());
+			}
 			return token;
 		}while(true);
 	}
 
+	/**
+	 * The token the input was cut at, null if the input ended before the
+	 * end index.
+	 */
+	public Token getEndToken() {
+		return endToken;
+	}
+
 	@Override
 	public int getLine() {
 		return tokenSource.getLine();
@@ -53,8 +79,8 @@ public class FilteredTokenSource implements TokenSource {
 
 	@Override
 	public TokenFactory<?> getTokenFactory() {
-		// TODO Auto-generated method stub
-		return null;
+		//the parser creates the missing tokens of error recovery through it
+		return tokenSource.getTokenFactory();
 	}
 
 }
@@ -0,0 +1,47 @@
+package edu.kuczapski.turtlecut.scripting;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed rate clock for animated playback. The caller renders one frame,
+ * then parks in {@link #awaitNextFrame()} until the next frame is due. When
+ * a frame takes longer than the frame period the missed frames are dropped
+ * instead of being rendered back to back.
+ */
+public class FrameClock {
+
+	public static final double DEFAULT_FRAME_RATE = 60;
+
+	private final long frameNanos;
+	private final long startNanos;
+	private long nextFrameNanos;
+
+	public FrameClock(double framesPerSecond) {
+		this.frameNanos = (long) (1e9 / framesPerSecond);
+		this.startNanos = System.nanoTime();
+		this.nextFrameNanos = startNanos + frameNanos;
+	}
+
+	/**
+	 * Blocks until the next frame is due and returns the seconds elapsed since
+	 * the clock was created. Returns early if the thread is interrupted.
+	 */
+	public double awaitNextFrame() {
+		long now = System.nanoTime();
+		while(now < nextFrameNanos) {
+			LockSupport.parkNanos(nextFrameNanos - now);
+			if(Thread.currentThread().isInterrupted()) break;
+			now = System.nanoTime();
+		}
+
+		nextFrameNanos += frameNanos;
+		if(nextFrameNanos <= now) {
+			nextFrameNanos = now + frameNanos;
+		}
+		return getElapsedSec();
+	}
+
+	public double getElapsedSec() {
+		return (System.nanoTime() - startNanos) / 1e9;
+	}
+}
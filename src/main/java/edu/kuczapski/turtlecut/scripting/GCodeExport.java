@@ -0,0 +1,102 @@
+package edu.kuczapski.turtlecut.scripting;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.CancellationException;
+import java.util.function.DoubleConsumer;
+
+import edu.kuczapski.turtlecut.profiling.JobContext;
+
+/**
+ * One export of a program to G-code, independent of the {@link Cutter} that
+ * renders the preview. It compiles with its own {@link TurtleCompiler} and
+ * writes with its own {@link GCodeGenerator}, the only thing shared is the
+ * compile cache, so it can run on any thread while the preview keeps
+ * rendering. {@link #cancel()} stops it from another thread.
+ */
+public class GCodeExport {
+
+	//share of the progress given to compiling, the rest is writing
+	private static final double COMPILE_PROGRESS = 0.2;
+
+	private final CompileCache cache;
+	private final String program;
+	private final GCodeGenerator generator;
+	private final double maxCanvasWidthMM;
+	private final double maxCanvasHeightMM;
+	private final TurtleCompiler compiler;
+
+	private final CancellationToken cancellation = new CancellationToken();
+	private DoubleConsumer progressListener;
+
+	public GCodeExport(CompileCache cache, String program, GCodeGenerator generator, double maxCanvasWidthMM, double maxCanvasHeightMM) {
+		this.cache = cache;
+		this.program = program;
+		this.generator = generator;
+		this.maxCanvasWidthMM = maxCanvasWidthMM;
+		this.maxCanvasHeightMM = maxCanvasHeightMM;
+		this.compiler = new TurtleCompiler(maxCanvasWidthMM, maxCanvasHeightMM);
+		cancellation.onCancel(compiler::setStopExecution);
+		cancellation.onCancel(generator::setStopExecution);
+	}
+
+	/**
+	 * Receives the progress from 0 to 1, on the thread running the export.
+	 */
+	public void setProgressListener(DoubleConsumer progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	/**
+	 * Compiles the program, or takes it from the cache, and writes its G-code.
+	 * The writer is flushed, not closed.
+	 *
+	 * @throws CancellationException when the export was cancelled, the writer
+	 * may have received a part of the program
+	 */
+	public void writeTo(Writer writer) throws IOException {
+		long previousJob = JobContext.enter(cancellation.id);
+		try {
+			write(writer);
+		}finally {
+			JobContext.exit(previousJob);
+		}
+	}
+
+	public void cancel() {
+		cancellation.cancel();
+	}
+
+	public boolean isCancelled() {
+		return cancellation.isCancelled();
+	}
+
+	//the generator, with the offsets of the exported canvas once written
+	public GCodeGenerator getGenerator() {
+		return generator;
+	}
+
+	private void write(Writer writer) throws IOException {
+		reportProgress(0);
+		CompileCache.Entry entry = cache.compile(program, compiler, maxCanvasWidthMM, maxCanvasHeightMM);
+		checkCancelled();
+		reportProgress(COMPILE_PROGRESS);
+
+		generator.setProgressListener(fraction->reportProgress(COMPILE_PROGRESS + (1-COMPILE_PROGRESS)*fraction));
+		try {
+			entry.writeGCode(generator, writer);
+		}finally {
+			generator.setProgressListener(null);
+		}
+		checkCancelled();
+		reportProgress(1);
+	}
+
+	private void checkCancelled() {
+		if(cancellation.isCancelled()) throw new CancellationException("export cancelled");
+	}
+
+	private void reportProgress(double fraction) {
+		if(progressListener!=null) progressListener.accept(fraction);
+	}
+}
@@ -1,11 +1,27 @@
 package edu.kuczapski.turtlecut.scripting;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
 
-import org.apache.commons.io.FileUtils;
+import edu.kuczapski.turtlecut.profiling.GCodeEvent;
+import edu.kuczapski.turtlecut.scripting.Cutter.CursorState;
+import edu.kuczapski.turtlecut.scripting.DisplayList.Kind;
+import edu.kuczapski.turtlecut.scripting.DisplayList.Primitive;
+import edu.kuczapski.turtlecut.toolpath.ContainmentTree;
+import edu.kuczapski.turtlecut.toolpath.CutOrderOptimizer;
+import edu.kuczapski.turtlecut.toolpath.Polyline;
+import edu.kuczapski.turtlecut.toolpath.SegmentDeduplicator;
+import edu.kuczapski.turtlecut.toolpath.Toolpath;
 
 public class GCodeGenerator {
 	public static final String GCODE_HEADER =
@@ -26,8 +42,11 @@ public class GCodeGenerator {
 			+ "G0 X0.025 Y0.025\n"
 			+ "M2\n";
 	
-	public static final String CUT_CMD_SUFFIX = " S600";
-	public static final String BURN_CMD_SUFFIX = " S100";
+	public static final int CUT_POWER = 600;
+	public static final int BURN_POWER = 100;
+	
+	//polylines written between two progress reports
+	private static final int PROGRESS_INTERVAL = 256;
 	
 	
 	private double maxWidth;
@@ -40,13 +59,29 @@ public class GCodeGenerator {
 	private double currentYOffset;
 	
 	
-	private List<String> commands;
+	private Toolpath toolpath;
+	
+	private boolean optimizeTravel;
+	private boolean insideOut = true;
+	private boolean removeDuplicates = true;
+	private double removedLengthMM;
+	private double travelBeforeMM;
+	private double travelAfterMM;
+	
+	private volatile boolean stopExecution = false;
+	private DoubleConsumer progressListener;
 	
 	private double minX;
 	private double minY;
 	private double maxX;
 	private double maxY;
 	
+	//state of the machine after the commands written so far, positions in hundredths as written
+	private int motion;
+	private int power;
+	private long lastX;
+	private long lastY;
+	
 	public GCodeGenerator(double maxWidth, double maxHeight) {
 		this.maxWidth = maxWidth;
 		this.maxHeight = maxHeight;
@@ -64,81 +99,482 @@ public class GCodeGenerator {
 		maxX = Double.NEGATIVE_INFINITY;
 		maxY = Double.NEGATIVE_INFINITY;
 		
-		commands = new ArrayList<>();
+		toolpath = new Toolpath();
+	}
+	
+	public String generate(DisplayList displayList) {
+		StringWriter out = new StringWriter();
+		try {
+			write(displayList, new GCodeWriter(out));
+		} catch (IOException e) {
+			//a StringWriter does not fail
+			throw new UncheckedIOException(e);
+		}
+		return out.toString();
+	}
+	
+	private void collect(DisplayList displayList) {
+		collect(displayList, new Toolpath());
 	}
 	
+	//turns the lines of the display list into the toolpath and the bounds of the header
+	private void collect(DisplayList displayList, Toolpath toolpath) {
+		init(displayList.getCanvasWidthMM(), displayList.getCanvasHeightMM());
+		this.toolpath = toolpath;
+		displayList.replay(primitive->{
+			if(stopExecution) return false;
+			if(primitive.kind == Kind.ARC) {
+				if(primitive.mode == CursorState.CUTTING) {
+					addArc(CUT_POWER, primitive);
+				}else if(primitive.mode == CursorState.DRAWING) {
+					addArc(BURN_POWER, primitive);
+				}
+				return true;
+			}
+			if(primitive.kind != Kind.LINE) return true;
+			if(primitive.mode == CursorState.CUTTING) {
+				cutLine(primitive.x1, primitive.y1, primitive.x2, primitive.y2);
+			}else if(primitive.mode == CursorState.DRAWING) {
+				burnLine(primitive.x1, primitive.y1, primitive.x2, primitive.y2);
+			}
+			return true;
+		});
+	}
+	
+	/**
+	 * Emits the collected polylines. The rapid move to a polyline is skipped
+	 * when the head is already there, and modal words (G1, G2, G3, S,
+	 * unchanged X or Y) are only written when they change. Arcs are written
+	 * as G2/G3 with the center offset in I and J.
+	 */
 	public String generate() {
-		StringBuilder sb = new StringBuilder();
-		sb.append( replaceVars(GCODE_HEADER));
-		for (String command : commands) {
-			sb.append(command);
-			sb.append("\n");
+		StringWriter out = new StringWriter();
+		try {
+			write(new GCodeWriter(out));
+		} catch (IOException e) {
+			//a StringWriter does not fail
+			throw new UncheckedIOException(e);
 		}
-		sb.append(GCODE_FOOTER);
-		return sb.toString();
+		return out.toString();
 	}
 	
-	private String replaceVars(String text) {
-		return text.replace("{MINX}", getActualX(minX))
-				   .replace("{MINY}", getActualY(minY))
-				   .replace("{MAXX}", getActualX(maxX))
-				   .replace("{MAXY}", getActualY(maxY));
+	/**
+	 * Streams the G-code of the display list to a writer. Removing the
+	 * duplicates and ordering the cuts need the whole toolpath, so with any of
+	 * them enabled the memory grows with the number of segments, see
+	 * {@link #write(GCodeWriter)}. With all of them disabled the display list
+	 * is replayed twice, once for the bounds in the header and once to write
+	 * every polyline as soon as it is complete, and the memory stays flat.
+	 */
+	public void write(DisplayList displayList, Writer writer) throws IOException {
+		write(displayList, new GCodeWriter(writer));
 	}
-
-	public void writeToFiles(String fileName) throws IOException {
-		String gcode = generate();
-		FileUtils.writeStringToFile(new File(fileName), gcode);
+	
+	public void write(DisplayList displayList, WritableByteChannel channel) throws IOException {
+		write(displayList, new GCodeWriter(channel));
 	}
 	
-	private String getActualX(double x) {
-		return format( x + currentXOffset);
+	private void write(DisplayList displayList, GCodeWriter out) throws IOException {
+		if(removeDuplicates || optimizeTravel || insideOut) {
+			collect(displayList);
+			write(out);
+			return;
+		}
+		GCodeEvent event = new GCodeEvent();
+		event.begin();
+		try {
+			stream(displayList, out, event);
+		}finally {
+			event.finish(0, event.segments, stopExecution);
+		}
 	}
 	
-	private String getActualY(double y) {
-		return format( y+ currentYOffset);
+	/**
+	 * Writes the collected polylines. The bounds in the header are known from
+	 * collecting the segments, so the commands are written out in a single
+	 * pass, but the toolpath holds every segment of the program. The writer
+	 * is flushed, not closed.
+	 */
+	public void write(GCodeWriter out) throws IOException {
+		GCodeEvent event = new GCodeEvent();
+		event.begin();
+		try {
+			write(out, event);
+		}finally {
+			event.finish(0, event.segments, stopExecution);
+		}
 	}
 	
-	//format number with at most 2 digit
-	private String format(double number) {
-		return String.format("%.2f", number);
+	private void write(GCodeWriter out, GCodeEvent event) throws IOException {
+		//the machine starts from its origin, which is outside the canvas when the canvas is centered
+		double originX = -currentXOffset;
+		double originY = -currentYOffset;
+		List<Polyline> polylines = toolpath.getPolylines();
+		removedLengthMM = 0;
+		checkStopped();
+		travelBeforeMM = Toolpath.getTravelDistance(polylines, originX, originY);
+		//the order is decided on the whole contours, removing the shared edge of two parts would open one of them
+		if(optimizeTravel) {
+			CutOrderOptimizer optimizer = new CutOrderOptimizer(originX, originY);
+			optimizer.setInsideOut(insideOut);
+			polylines = optimizer.optimize(polylines);
+		}else if(insideOut) {
+			polylines = ContainmentTree.build(polylines).getInsideOutOrder();
+		}
+		checkStopped();
+		if(removeDuplicates) {
+			SegmentDeduplicator deduplicator = new SegmentDeduplicator();
+			polylines = deduplicator.process(polylines);
+			removedLengthMM = deduplicator.getRemovedLengthMM();
+			checkStopped();
+		}
+		reportProgress(0);
+		event.polylines = polylines.size();
+		travelAfterMM = Toolpath.getTravelDistance(polylines, originX, originY);
+		
+		out.append(replaceVars(GCODE_HEADER));
+		if(removedLengthMM>0) {
+			out.append("; Duplicate cuts removed: ").appendDecimal(removedLengthMM).append(" mm").newLine();
+		}
+		if(optimizeTravel) {
+			out.append("; Travel: ").appendDecimal(travelAfterMM)
+			   .append(" mm, ").appendDecimal(travelBeforeMM).append(" mm in program order").newLine();
+		}
+		
+		resetMachineState();
+		int written = 0;
+		for(Polyline polyline : polylines) {
+			if(++written % PROGRESS_INTERVAL == 0) {
+				checkStopped();
+				reportProgress((double) written/polylines.size());
+			}
+			writePolyline(out, polyline, event);
+		}
+		
+		out.append(GCODE_FOOTER);
+		out.flush();
+		reportProgress(1);
+	}
+	
+	//first replay for the bounds and the number of polylines, the second one writes them
+	private void stream(DisplayList displayList, GCodeWriter out, GCodeEvent event) throws IOException {
+		checkStopped();
+		collect(displayList, new Toolpath(polyline->event.polylines++));
+		toolpath.flush();
+		checkStopped();
+		reportProgress(0);
+		removedLengthMM = 0;
+		
+		out.append(replaceVars(GCODE_HEADER));
+		resetMachineState();
+		PolylineStream stream = new PolylineStream(out, event);
+		try {
+			collect(displayList, new Toolpath(stream));
+			toolpath.flush();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		checkStopped();
+		travelBeforeMM = stream.travel;
+		travelAfterMM = stream.travel;
+		
+		out.append(GCODE_FOOTER);
+		out.flush();
+		reportProgress(1);
 	}
 	
-	public void moveTo(double x, double y) {
-		updateMinMax(x, y);
-		commands.add("G0 X" + getActualX(x) + " Y" +  getActualY(y) + " S0");
+	//writes the polylines handed over by a streaming toolpath in program order
+	private class PolylineStream implements Consumer<Polyline>{
+		private final GCodeWriter out;
+		private final GCodeEvent event;
+		private int written;
+		private double travel;
+		private double x = -currentXOffset;
+		private double y = -currentYOffset;
+		
+		PolylineStream(GCodeWriter out, GCodeEvent event) {
+			this.out = out;
+			this.event = event;
+		}
+		
+		@Override
+		public void accept(Polyline polyline) {
+			if(++written % PROGRESS_INTERVAL == 0) {
+				reportProgress((double) written/event.polylines);
+			}
+			travel += Math.hypot(polyline.getStartX()-x, polyline.getStartY()-y);
+			x = polyline.getEndX();
+			y = polyline.getEndY();
+			try {
+				writePolyline(out, polyline, event);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
 	}
 	
+	//the header leaves G1 active, the power and position are unknown
+	private void resetMachineState() {
+		motion = 1;
+		power = -1;
+		lastX = Long.MIN_VALUE;
+		lastY = Long.MIN_VALUE;
+	}
+	
+	private void writePolyline(GCodeWriter out, Polyline polyline, GCodeEvent event) throws IOException {
+		long startX = getActualX(polyline.getStartX());
+		long startY = getActualY(polyline.getStartY());
+		if(startX!=lastX || startY!=lastY) {
+			out.append("G0 X").appendFixed(startX).append(" Y").appendFixed(startY);
+			if(power!=0) {
+				out.append(" S0");
+				power = 0;
+			}
+			out.newLine();
+			motion = 0;
+			lastX = startX;
+			lastY = startY;
+		}
+		
+		for(int i=1;i<polyline.getPointCount();i++) {
+			long x = getActualX(polyline.getX(i));
+			long y = getActualY(polyline.getY(i));
+			if(x==lastX && y==lastY) continue;
+			
+			double sweep = polyline.getSweep(i);
+			int segmentMotion = sweep==0 ? 1 : sweep<0 ? 2 : 3;
+			boolean separator = false;
+			if(motion!=segmentMotion) {
+				out.append('G').appendInt(segmentMotion);
+				separator = true;
+				motion = segmentMotion;
+			}
+			if(x!=lastX) {
+				if(separator) out.append(' ');
+				out.append('X').appendFixed(x);
+				separator = true;
+			}
+			if(y!=lastY) {
+				if(separator) out.append(' ');
+				out.append('Y').appendFixed(y);
+			}
+			if(sweep!=0) {
+				writeArcCenter(out, polyline, i, lastX, lastY, x, y);
+			}
+			if(power!=polyline.getPower()) {
+				out.append(" S").appendInt(polyline.getPower());
+				power = polyline.getPower();
+			}
+			out.newLine();
+			
+			lastX = x;
+			lastY = y;
+			event.segments++;
+		}
+	}
+	
+	/**
+	 * Cancels the generation from another thread, the running or next call
+	 * of generate or write throws a {@link CancellationException}.
+	 */
+	public void setStopExecution() {
+		this.stopExecution = true;
+	}
+	
+	public boolean isStopped() {
+		return stopExecution;
+	}
+	
+	/**
+	 * Receives the fraction of the polylines written, from the thread
+	 * generating the G-code.
+	 */
+	public void setProgressListener(DoubleConsumer progressListener) {
+		this.progressListener = progressListener;
+	}
+	
+	private void checkStopped() {
+		if(stopExecution) throw new CancellationException("G-code generation stopped");
+	}
+	
+	private void reportProgress(double fraction) {
+		if(progressListener!=null) progressListener.accept(fraction);
+	}
+	
+	/**
+	 * Writes I and J for the arc ending at the given point. GRBL rejects arcs
+	 * whose ends are not at the same distance from the center, so the center
+	 * is moved onto the bisector of the chord between the rounded ends, and
+	 * the offsets get one more decimal than the coordinates.
+	 */
+	private void writeArcCenter(GCodeWriter out, Polyline polyline, int index, long startX, long startY, long endX, long endY) throws IOException {
+		double x1 = startX/100.0;
+		double y1 = startY/100.0;
+		double x2 = endX/100.0;
+		double y2 = endY/100.0;
+		double centerX = polyline.getArcCenterX(index) + currentXOffset;
+		double centerY = polyline.getArcCenterY(index) + currentYOffset;
+		
+		double midX = (x1+x2)/2;
+		double midY = (y1+y2)/2;
+		double chord = Math.hypot(x2-x1, y2-y1);
+		double normalX = -(y2-y1)/chord;
+		double normalY = (x2-x1)/chord;
+		double distance = (centerX-midX)*normalX + (centerY-midY)*normalY;
+		centerX = midX + normalX*distance;
+		centerY = midY + normalY*distance;
+		
+		out.append(" I").appendDecimal(centerX-x1, 3).append(" J").appendDecimal(centerY-y1, 3);
+	}
+	
+	private String replaceVars(String text) {
+		return text.replace("{MINX}", GCodeWriter.format(minX + currentXOffset))
+				   .replace("{MINY}", GCodeWriter.format(minY + currentYOffset))
+				   .replace("{MAXX}", GCodeWriter.format(maxX + currentXOffset))
+				   .replace("{MAXY}", GCodeWriter.format(maxY + currentYOffset));
+	}
 
-	public void cutTo(double x, double y) {
-		updateMinMax(x, y);
-		commands.add("G1 X" + getActualX(x) + " Y" + getActualY(y) + CUT_CMD_SUFFIX);
+	public void writeToFiles(String fileName) throws IOException {
+		try(FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			write(new GCodeWriter(channel));
+		}
 	}
 	
-	public void burnTo(double x, double y) {
-		updateMinMax(x, y);
-		commands.add("G1 X" + getActualX(x) + " Y" + getActualY(y) + BURN_CMD_SUFFIX);
+	//machine coordinate in hundredths of a millimeter
+	private long getActualX(double x) {
+		return GCodeWriter.toFixed( x + currentXOffset);
 	}
 	
-	public void stop() {
-		commands.add("G1S0");
+	private long getActualY(double y) {
+		return GCodeWriter.toFixed( y+ currentYOffset);
 	}
 	
 	public void burnLine(double x1, double y1, double x2, double y2) {
 		
 		if(x1<0 || x1> currentWidth || x2<0 || x2> currentWidth || y1<0 || y1> currentHeight || y2<0 || y2> currentHeight) return;
 		
-		moveTo(x1, y1);
-		burnTo(x2, y2);
-		stop();
+		updateMinMax(x1, y1);
+		updateMinMax(x2, y2);
+		toolpath.addSegment(BURN_POWER, x1, y1, x2, y2);
 	}
 	
 	public void cutLine(double x1, double y1, double x2, double y2) {
 		
 		if(x1<0 || x1> currentWidth || x2<0 || x2> currentWidth || y1<0 || y1> currentHeight || y2<0 || y2> currentHeight) return;
 		
-		moveTo(x1, y1);
-		cutTo(x2, y2);
-		stop();
+		updateMinMax(x1, y1);
+		updateMinMax(x2, y2);
+		toolpath.addSegment(CUT_POWER, x1, y1, x2, y2);
+	}
+	
+	/**
+	 * When enabled, the polylines are reordered to shorten the rapid moves,
+	 * engraving first and cutting last. Off by default, the program order is kept.
+	 */
+	public void setOptimizeTravel(boolean optimizeTravel) {
+		this.optimizeTravel = optimizeTravel;
+	}
+	
+	public boolean isOptimizeTravel() {
+		return optimizeTravel;
+	}
+	
+	/**
+	 * When enabled, everything enclosed by a closed contour is burned before
+	 * the contour, so holes are cut while the part is still held by the sheet.
+	 * On by default.
+	 */
+	public void setInsideOut(boolean insideOut) {
+		this.insideOut = insideOut;
+	}
+	
+	public boolean isInsideOut() {
+		return insideOut;
+	}
+	
+	/**
+	 * When enabled, segments retracing a segment already burned with the same
+	 * power, such as the common edge of two touching parts, are burned only
+	 * once, the first time the cut order reaches them. On by default.
+	 */
+	public void setRemoveDuplicates(boolean removeDuplicates) {
+		this.removeDuplicates = removeDuplicates;
+	}
+	
+	public boolean isRemoveDuplicates() {
+		return removeDuplicates;
+	}
+	
+	/**
+	 * Identifies the settings the G-code depends on besides the display list,
+	 * two generators with the same key emit the same program.
+	 */
+	public String getOptionsKey() {
+		return maxWidth + "x" + maxHeight
+				+ (optimizeTravel ? " optimizeTravel" : "")
+				+ (insideOut ? " insideOut" : "")
+				+ (removeDuplicates ? " removeDuplicates" : "");
+	}
+	
+	//burn length saved by removing the duplicate segments in the last generated G-code
+	public double getRemovedLengthMM() {
+		return removedLengthMM;
+	}
+	
+	//rapid move length of the last generated G-code in program order, before removing the duplicates
+	public double getTravelBeforeMM() {
+		return travelBeforeMM;
+	}
+	
+	//rapid move length of the last generated G-code as emitted
+	public double getTravelAfterMM() {
+		return travelAfterMM;
+	}
+	
+	//statistics of G-code generated earlier for the same display list and options
+	void setStatistics(double removedLengthMM, double travelBeforeMM, double travelAfterMM) {
+		this.removedLengthMM = removedLengthMM;
+		this.travelBeforeMM = travelBeforeMM;
+		this.travelAfterMM = travelAfterMM;
+	}
+	
+	//offset from canvas to machine coordinates, the canvas is centered on the machine
+	public double getXOffsetMM() {
+		return currentXOffset;
+	}
+	
+	public double getYOffsetMM() {
+		return currentYOffset;
+	}
+	
+	private void addArc(int power, Primitive arc) {
+		//bounding box from the ends and the extreme points the arc passes
+		double minX = Math.min(arc.getArcX(0), arc.getArcX(1));
+		double maxX = Math.max(arc.getArcX(0), arc.getArcX(1));
+		double minY = Math.min(arc.getArcY(0), arc.getArcY(1));
+		double maxY = Math.max(arc.getArcY(0), arc.getArcY(1));
+		for(int quadrant=0;quadrant<4;quadrant++) {
+			double angle = quadrant*Math.PI/2;
+			double fromStart = arc.turnAngle>0 ? angle-arc.startAngle : arc.startAngle-angle;
+			fromStart -= Math.floor(fromStart/(2*Math.PI))*2*Math.PI;
+			if(fromStart>Math.abs(arc.turnAngle)) continue;
+			double x = arc.x1 + arc.radius*Math.cos(angle);
+			double y = arc.y1 + arc.radius*Math.sin(angle);
+			minX = Math.min(minX, x);
+			maxX = Math.max(maxX, x);
+			minY = Math.min(minY, y);
+			maxY = Math.max(maxY, y);
+		}
+		
+		if(minX<0 || maxX> currentWidth || minY<0 || maxY> currentHeight) return;
+		
+		updateMinMax(minX, minY);
+		updateMinMax(maxX, maxY);
+		toolpath.addArc(power, arc.x1, arc.y1, arc.radius, arc.startAngle, arc.turnAngle);
+	}
+	
+	public Toolpath getToolpath() {
+		return toolpath;
 	}
 	
 	public void updateMinMax(double x, double y) {
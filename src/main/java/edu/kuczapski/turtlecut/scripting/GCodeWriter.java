@@ -0,0 +1,168 @@
+package edu.kuczapski.turtlecut.scripting;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Buffered G-code output. Commands are encoded straight into one reusable
+ * ASCII buffer that is drained to a channel or a writer when full, so the
+ * size of the job does not change the memory needed to write it. Numbers
+ * are written as fixed point hundredths without going through strings.
+ */
+public class GCodeWriter implements Flushable, Closeable {
+
+	private static final int BUFFER_SIZE = 64*1024;
+	private static final long[] SCALES = {1, 10, 100, 1000, 10000, 100000, 1000000};
+
+	private final WritableByteChannel channel;
+	private final Writer writer;
+
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private final char[] chars;
+	private final byte[] digits = new byte[20];
+
+	public GCodeWriter(WritableByteChannel channel) {
+		this.channel = channel;
+		this.writer = null;
+		this.chars = null;
+	}
+
+	public GCodeWriter(Writer writer) {
+		this.channel = null;
+		this.writer = writer;
+		this.chars = new char[BUFFER_SIZE];
+	}
+
+	/**
+	 * Rounds to hundredths, halves away from zero like {@code %.2f} does.
+	 */
+	public static long toFixed(double value) {
+		return toFixed(value, 2);
+	}
+
+	public static long toFixed(double value, int decimals) {
+		long scale = SCALES[decimals];
+		return value<0 ? -Math.round(-value*scale) : Math.round(value*scale);
+	}
+
+	public static String format(double value) {
+		if(!Double.isFinite(value)) return String.valueOf(value);
+		long fixed = toFixed(value);
+		StringBuilder sb = new StringBuilder();
+		if(fixed<0) {
+			sb.append('-');
+			fixed = -fixed;
+		}
+		sb.append(fixed/100).append('.');
+		long fraction = fixed%100;
+		if(fraction<10) sb.append('0');
+		return sb.append(fraction).toString();
+	}
+
+	//only ASCII is expected in G-code, other characters are written as '?'
+	public GCodeWriter append(CharSequence text) throws IOException {
+		for(int i=0;i<text.length();i++) {
+			append(text.charAt(i));
+		}
+		return this;
+	}
+
+	public GCodeWriter append(char c) throws IOException {
+		if(!buffer.hasRemaining()) drain();
+		buffer.put(c<128 ? (byte) c : (byte) '?');
+		return this;
+	}
+
+	public GCodeWriter appendInt(long value) throws IOException {
+		if(value<0) {
+			append('-');
+			value = -value;
+		}
+		int count = 0;
+		do {
+			digits[count++] = (byte) ('0' + value%10);
+			value /= 10;
+		}while(value>0);
+
+		while(count>0) {
+			if(!buffer.hasRemaining()) drain();
+			buffer.put(digits[--count]);
+		}
+		return this;
+	}
+
+	/**
+	 * Writes a value in hundredths, as returned by {@link #toFixed(double)},
+	 * with exactly two decimals.
+	 */
+	public GCodeWriter appendFixed(long hundredths) throws IOException {
+		return appendFixed(hundredths, 2);
+	}
+
+	/**
+	 * Writes a fixed point value with the given number of decimals, as
+	 * returned by {@link #toFixed(double, int)}.
+	 */
+	public GCodeWriter appendFixed(long value, int decimals) throws IOException {
+		if(value<0) {
+			append('-');
+			value = -value;
+		}
+		long scale = SCALES[decimals];
+		appendInt(value/scale);
+		append('.');
+		long fraction = value%scale;
+		for(long digit=scale/10;digit>0;digit/=10) {
+			append((char) ('0' + fraction/digit%10));
+		}
+		return this;
+	}
+
+	public GCodeWriter appendDecimal(double value) throws IOException {
+		return appendFixed(toFixed(value));
+	}
+
+	public GCodeWriter appendDecimal(double value, int decimals) throws IOException {
+		return appendFixed(toFixed(value, decimals), decimals);
+	}
+
+	public GCodeWriter newLine() throws IOException {
+		return append('\n');
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		if(channel!=null) {
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}else {
+			int count = buffer.remaining();
+			for(int i=0;i<count;i++) {
+				chars[i] = (char) buffer.get();
+			}
+			writer.write(chars, 0, count);
+		}
+		buffer.clear();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		drain();
+		if(writer!=null) writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		if(channel!=null) {
+			channel.close();
+		}else {
+			writer.close();
+		}
+	}
+}
@@ -14,7 +14,7 @@ public class GramarTest {
     	
     	Cutter cutter = new Cutter(400, 300, 0.25);
     	
-    	cutter.execute(program, 0, 0);
+    	cutter.execute(program, 0);
     	
     	
     	cutter.requestImage(img->{
@@ -0,0 +1,74 @@
+package edu.kuczapski.turtlecut.scripting;
+
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.Stroke;
+import java.awt.geom.Path2D;
+
+import edu.kuczapski.turtlecut.scripting.Cutter.CursorState;
+import edu.kuczapski.turtlecut.scripting.DisplayList.Kind;
+
+/**
+ * Vector overlay with the segments of the line under the caret, in the pixel
+ * space of the image rendered by {@link Cutter}. It is built from the display
+ * list line index, so moving the caret never touches the rendered image.
+ */
+public class HighlightOverlay {
+
+	public static final BasicStroke HIGHLIGHT_STROKE = new BasicStroke(4.0f);
+
+	private final Path2D cutPath = new Path2D.Float();
+	private final Path2D drawPath = new Path2D.Float();
+
+	private HighlightOverlay() {
+	}
+
+	public static HighlightOverlay create(DisplayList displayList, int line, double pixelSizeMM, double borderMM) {
+		HighlightOverlay overlay = new HighlightOverlay();
+		if(displayList==null) return overlay;
+
+		double offset = (int) (borderMM / pixelSizeMM);
+		double canvasHeightMM = displayList.getCanvasHeightMM();
+
+		displayList.replayLine(line, primitive->{
+			if(primitive.kind != Kind.LINE && primitive.kind != Kind.ARC) return true;
+
+			Path2D path;
+			if(primitive.mode == CursorState.CUTTING) {
+				path = overlay.cutPath;
+			}else if(primitive.mode == CursorState.DRAWING) {
+				path = overlay.drawPath;
+			}else {
+				return true;
+			}
+
+			if(primitive.kind == Kind.ARC) {
+				int chords = primitive.getChordCount(pixelSizeMM/2);
+				path.moveTo(offset + primitive.getArcX(0) / pixelSizeMM, offset + (canvasHeightMM - primitive.getArcY(0)) / pixelSizeMM);
+				for(int i=1;i<=chords;i++) {
+					double fraction = (double) i/chords;
+					path.lineTo(offset + primitive.getArcX(fraction) / pixelSizeMM, offset + (canvasHeightMM - primitive.getArcY(fraction)) / pixelSizeMM);
+				}
+				return true;
+			}
+			
+			path.moveTo(offset + Math.round(primitive.x1 / pixelSizeMM), offset + Math.round((canvasHeightMM - primitive.y1) / pixelSizeMM));
+			path.lineTo(offset + Math.round(primitive.x2 / pixelSizeMM), offset + Math.round((canvasHeightMM - primitive.y2) / pixelSizeMM));
+			return true;
+		});
+		return overlay;
+	}
+
+	public void paint(Graphics2D graphics) {
+		Stroke prevStroke = graphics.getStroke();
+		try {
+			graphics.setStroke(HIGHLIGHT_STROKE);
+			graphics.setColor(Cutter.CUT_COLOR);
+			graphics.draw(cutPath);
+			graphics.setColor(Cutter.DRAW_COLOR);
+			graphics.draw(drawPath);
+		}finally {
+			graphics.setStroke(prevStroke);
+		}
+	}
+}
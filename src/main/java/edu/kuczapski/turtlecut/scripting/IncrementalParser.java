@@ -0,0 +1,312 @@
+package edu.kuczapski.turtlecut.scripting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import javax.swing.text.Segment;
+
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.CommonTokenFactory;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.misc.IntervalSet;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import edu.kuczapski.turtlecut.profiling.LexEvent;
+import edu.kuczapski.turtlecut.profiling.ParseEvent;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.CommandBlockContext;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.ProgramContext;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.SetCanvasContext;
+
+/**
+ * Parser for the editor that keeps the tree of the last version of the
+ * program. After an edit only the top level command blocks touching the
+ * changed text are lexed and parsed again, with one more block on each
+ * side, since the edit can join a block with its neighbour or split it.
+ * The new blocks are spliced between the old ones, which keep their
+ * identity; the tokens of the blocks after the edit are moved to their new
+ * position.
+ * <p>
+ * Everything is parsed again when the canvas size is edited, when the last
+ * tree did not cover the whole text, when a block with syntax errors is
+ * outside the parsed part, when the parsed part has a syntax error, or when
+ * it does not end where the next block starts. The error recovery of a part
+ * can not resynchronize on the blocks after it, so only a full parse gives
+ * the tree and the errors of a program with mistakes. Trees returned earlier are updated in place, so they must not be used by
+ * another thread while parsing.
+ */
+public class IncrementalParser {
+
+	//tokens a command block can start with
+	private static final IntervalSet BLOCK_START = TurtleParser._ATN.nextTokens(TurtleParser._ATN.ruleToStartState[TurtleParser.RULE_commandBlock]);
+
+	private String text;
+	private ProgramContext program;
+	private List<CommandBlockContext> blocks;
+	//the tokens of each block, to move them without walking the trees
+	private List<Token[]> blockTokens;
+	//blocks with syntax errors, they have to be parsed again on the next edit
+	private final Set<CommandBlockContext> invalidBlocks = Collections.newSetFromMap(new IdentityHashMap<>());
+	//false if the last tree can not be patched, e.g. the parser stopped before the end of the text
+	private boolean patchable;
+
+	private int parsedBlockCount;
+	private int reusedBlockCount;
+
+	public synchronized ProgramContext parse(String newText, ANTLRErrorListener errorListener) {
+		if(program!=null && newText.equals(text)) {
+			parsedBlockCount = 0;
+			reusedBlockCount = blocks.size();
+			return program;
+		}
+
+		ParseEvent event = new ParseEvent();
+		event.begin();
+		if(program==null || !patchable || !reparse(newText)) {
+			parseAll(newText, errorListener);
+		}
+		text = newText;
+		event.parsedBlocks = parsedBlockCount;
+		event.reusedBlocks = reusedBlockCount;
+		event.finish(newText.length(), 0, false);
+		return program;
+	}
+
+	//number of top level blocks parsed by the last call
+	public synchronized int getParsedBlockCount() {
+		return parsedBlockCount;
+	}
+
+	//number of top level blocks kept from the previous tree by the last call
+	public synchronized int getReusedBlockCount() {
+		return reusedBlockCount;
+	}
+
+	private void parseAll(String newText, ANTLRErrorListener errorListener) {
+		TurtleLexer lexer = new TurtleLexer(new SegmentCharStream(new Segment(newText.toCharArray(), 0, newText.length())));
+		TurtleParser parser = createParser(lexer, Integer.MAX_VALUE, errorListener);
+
+		program = TurtleCompiler.parseTwoStage(parser, TurtleParser::program, errorListener);
+		blocks = new ArrayList<>(program.commandBlock());
+		blockTokens = getTokens(blocks, (CommonTokenStream) parser.getInputStream());
+		patchable = parser.getInputStream().LA(1)==Token.EOF && !hasErrors(program.setCanvas());
+		invalidBlocks.clear();
+		for(CommandBlockContext block : blocks) {
+			if(hasErrors(block)) invalidBlocks.add(block);
+		}
+
+		parsedBlockCount = blocks.size();
+		reusedBlockCount = 0;
+	}
+
+	/**
+	 * Parses only the blocks around the edit into a new tree. Returns false,
+	 * without changing anything, if the whole program has to be parsed.
+	 */
+	private boolean reparse(String newText) {
+		int oldLength = text.length();
+		int newLength = newText.length();
+
+		//the edit replaced [prefix, oldEnd) of the old text with [prefix, newEnd) of the new one
+		int prefix = 0;
+		int maxPrefix = Math.min(oldLength, newLength);
+		while(prefix<maxPrefix && text.charAt(prefix)==newText.charAt(prefix)) prefix++;
+		int suffix = 0;
+		int maxSuffix = maxPrefix - prefix;
+		while(suffix<maxSuffix && text.charAt(oldLength-1-suffix)==newText.charAt(newLength-1-suffix)) suffix++;
+		int oldEnd = oldLength - suffix;
+		int newEnd = newLength - suffix;
+
+		if(blocks.isEmpty() || prefix<getStart(blocks.get(0))) return false;
+
+		//blocks touching the edit, including the ones ending right before or starting right after it
+		int first = 0;
+		while(first<blocks.size() && getStop(blocks.get(first))+1<prefix) first++;
+		int last = blocks.size()-1;
+		while(last>=0 && getStart(blocks.get(last))>oldEnd) last--;
+		int from = Math.max(0, first-1);
+		int to = Math.min(blocks.size()-1, last+1);
+
+		int invalidInRange = 0;
+		for(int i=from;i<=to;i++) {
+			if(invalidBlocks.contains(blocks.get(i))) invalidInRange++;
+		}
+		if(invalidInRange<invalidBlocks.size()) return false;
+
+		int regionStart = getStart(blocks.get(from));
+		int oldRegionEnd = to+1<blocks.size() ? getStart(blocks.get(to+1)) : oldLength;
+		int newRegionEnd = oldRegionEnd + newLength - oldLength;
+
+		boolean[] failed = {false};
+		BaseErrorListener collector = new BaseErrorListener() {
+			@Override
+			public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
+					String msg, RecognitionException e) {
+				failed[0] = true;
+			}
+		};
+
+		//lexing starts at the first token of the region, with its position in the text
+		Token startToken = blocks.get(from).getStart();
+		SegmentCharStream input = new SegmentCharStream(new Segment(newText.toCharArray(), 0, newLength));
+		input.seek(regionStart);
+		TurtleLexer lexer = new TurtleLexer(input);
+		lexer.setLine(startToken.getLine());
+		lexer.setCharPositionInLine(startToken.getCharPositionInLine());
+		TurtleParser parser = createParser(lexer, newRegionEnd, collector);
+
+		List<CommandBlockContext> parsed = TurtleCompiler.parseTwoStage(parser, IncrementalParser::parseBlocks, collector);
+		if(parsed==null || failed[0]) return false;
+		CommonTokenStream tokens = (CommonTokenStream) parser.getInputStream();
+		Token lastToken = tokens.LT(-1);
+		if(lastToken!=null && lastToken.getStopIndex()>=newRegionEnd) return false;
+		if(to+1<blocks.size()) {
+			//the region was cut where the next block starts, the same token has to be found there
+			Token next = blocks.get(to+1).getStart();
+			Token end = ((FilteredTokenSource) tokens.getTokenSource()).getEndToken();
+			if(end==null || end.getStartIndex()!=newRegionEnd || end.getType()!=next.getType()
+					|| end.getStopIndex()-end.getStartIndex()!=next.getStopIndex()-next.getStartIndex()) return false;
+		}
+
+		//the blocks after the region move with the text; only the ones on the line where the edit ends change column
+		int offsetDelta = newLength - oldLength;
+		int lineDelta = countLines(newText, prefix, newEnd) - countLines(text, prefix, oldEnd);
+		int columnDelta = (newEnd - newText.lastIndexOf('\n', newEnd-1)) - (oldEnd - text.lastIndexOf('\n', oldEnd-1));
+		int lineEnd = text.indexOf('\n', oldEnd);
+		if(lineEnd<0) lineEnd = Integer.MAX_VALUE;
+
+		int size = blocks.size() - (to-from+1) + parsed.size();
+		List<CommandBlockContext> spliced = new ArrayList<>(size);
+		List<Token[]> splicedTokens = new ArrayList<>(size);
+		spliced.addAll(blocks.subList(0, from));
+		splicedTokens.addAll(blockTokens.subList(0, from));
+		spliced.addAll(parsed);
+		splicedTokens.addAll(getTokens(parsed, tokens));
+		for(int i=to+1;i<blocks.size();i++) {
+			move(blockTokens.get(i), offsetDelta, lineDelta, lineEnd, columnDelta);
+			spliced.add(blocks.get(i));
+			splicedTokens.add(blockTokens.get(i));
+		}
+
+		program = createProgram(program, spliced);
+		blocks = spliced;
+		blockTokens = splicedTokens;
+		//the invalid blocks were all in the region, and the new ones have no errors
+		invalidBlocks.clear();
+
+		parsedBlockCount = parsed.size();
+		reusedBlockCount = spliced.size() - parsed.size();
+		return true;
+	}
+
+	/**
+	 * Parses command blocks up to the end of the tokens, like the program
+	 * rule does. Returns null if a token no block starts with is found, the
+	 * program rule would stop there and leave the rest of the text out.
+	 */
+	private static List<CommandBlockContext> parseBlocks(TurtleParser parser) {
+		TokenStream tokens = parser.getInputStream();
+		List<CommandBlockContext> blocks = new ArrayList<>();
+		while(tokens.LA(1)!=Token.EOF) {
+			if(!BLOCK_START.contains(tokens.LA(1))) return null;
+			blocks.add(parser.commandBlock());
+		}
+		return blocks;
+	}
+
+	private static TurtleParser createParser(TurtleLexer lexer, int endIndex, ANTLRErrorListener errorListener) {
+		lexer.removeErrorListeners();
+		lexer.addErrorListener(errorListener);
+		//the tokens keep a copy of their text, so they stay valid in the trees of later versions of the program
+		lexer.setTokenFactory(new CommonTokenFactory(true));
+
+		CommonTokenStream tokens = new CommonTokenStream(new FilteredTokenSource(lexer, endIndex));
+		LexEvent event = new LexEvent();
+		event.begin();
+		tokens.fill();
+		event.tokens = tokens.size();
+		//the characters from the first token to the last one before EOF
+		int lexed = tokens.size()<2 ? 0 : tokens.get(tokens.size()-2).getStopIndex()+1 - tokens.get(0).getStartIndex();
+		event.finish(lexed, 0, false);
+		return new TurtleParser(tokens);
+	}
+
+	private static ProgramContext createProgram(ProgramContext previous, List<CommandBlockContext> blocks) {
+		ProgramContext program = new ProgramContext(null, previous.invokingState);
+		SetCanvasContext setCanvas = previous.setCanvas();
+		program.addChild(setCanvas);
+		setCanvas.setParent(program);
+		for(CommandBlockContext block : blocks) {
+			program.addChild(block);
+			block.setParent(program);
+		}
+
+		boolean hasCanvas = setCanvas.getChildCount()>0;
+		program.start = hasCanvas || blocks.isEmpty() ? previous.start : blocks.get(0).getStart();
+		program.stop = blocks.isEmpty() ? previous.stop : blocks.get(blocks.size()-1).getStop();
+		return program;
+	}
+
+	private static List<Token[]> getTokens(List<CommandBlockContext> blocks, CommonTokenStream tokens) {
+		List<Token[]> result = new ArrayList<>(blocks.size());
+		for(CommandBlockContext block : blocks) {
+			int start = block.getStart().getTokenIndex();
+			int stop = block.getStop()!=null ? block.getStop().getTokenIndex() : start-1;
+			//tokens made up by the error recovery are not in the stream, the block is parsed again anyway
+			result.add(stop<start ? new Token[0] : tokens.get(start, stop).toArray(new Token[0]));
+		}
+		return result;
+	}
+
+	private static void move(Token[] tokens, int offsetDelta, int lineDelta, int lineEnd, int columnDelta) {
+		if(offsetDelta==0 && lineDelta==0 && columnDelta==0) return;
+		for(Token symbol : tokens) {
+			CommonToken token = (CommonToken) symbol;
+			if(token.getStartIndex()<lineEnd) token.setCharPositionInLine(token.getCharPositionInLine()+columnDelta);
+			token.setStartIndex(token.getStartIndex()+offsetDelta);
+			token.setStopIndex(token.getStopIndex()+offsetDelta);
+			token.setLine(token.getLine()+lineDelta);
+		}
+	}
+
+	private static boolean hasErrors(ParseTree tree) {
+		ArrayDeque<ParseTree> stack = new ArrayDeque<>();
+		stack.push(tree);
+		while(!stack.isEmpty()) {
+			ParseTree node = stack.pop();
+			if(node instanceof ErrorNode) return true;
+			if(node instanceof ParserRuleContext && ((ParserRuleContext) node).exception!=null) return true;
+			for(int i=0;i<node.getChildCount();i++) {
+				stack.push(node.getChild(i));
+			}
+		}
+		return false;
+	}
+
+	private static int countLines(String text, int start, int end) {
+		int lines = 0;
+		for(int i=start;i<end;i++) {
+			if(text.charAt(i)=='\n') lines++;
+		}
+		return lines;
+	}
+
+	private static int getStart(ParserRuleContext ctx) {
+		return ctx.getStart().getStartIndex();
+	}
+
+	private static int getStop(ParserRuleContext ctx) {
+		return ctx.getStop()!=null ? ctx.getStop().getStopIndex() : ctx.getStart().getStartIndex()-1;
+	}
+}
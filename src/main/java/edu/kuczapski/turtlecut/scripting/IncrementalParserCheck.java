@@ -0,0 +1,93 @@
+package edu.kuczapski.turtlecut.scripting;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * Applies random edits to the example programs, half of them leaving
+ * syntax errors, and compares the tree of the incremental parser after each
+ * edit with a full parse of the same text, token positions included.
+ * <pre>
+ * IncrementalParserCheck [seed] [edits]
+ * </pre>
+ * The exit code is 1 when a tree differs.
+ */
+public class IncrementalParserCheck {
+
+	private static final String[] EXAMPLES = {"examples/first.cut", "examples/lid.cut"};
+
+	//valid commands and fragments that break the block they land in
+	private static final String[] SNIPPETS = {
+			"taie linie spre 10 grade de 3 mm\n", "deseneaza linie spre stanga de 2 cm\n", "du-te la 3,4\n",
+			"repeta 2 [ taie cerc cu raza de 2 mm ]\n", "\n", " ",
+			"repeta 2 ", "[", "]", "dm", "de", "7", "linie spre", "cerc cu raza de",
+	};
+
+	public static void main(String[] args) throws IOException {
+		long seed = args.length>0 ? Long.parseLong(args[0]) : 1;
+		int edits = args.length>1 ? Integer.parseInt(args[1]) : 400;
+
+		Random random = new Random(seed);
+		BaseErrorListener ignore = new BaseErrorListener();
+		int mismatches = 0;
+		for(String example : EXAMPLES) {
+			String original = new String(Files.readAllBytes(Path.of(example)), StandardCharsets.UTF_8);
+			IncrementalParser parser = new IncrementalParser();
+			parser.parse(original, ignore);
+			String text = original;
+			for(int edit=0;edit<edits;edit++) {
+				//back to the valid program now and then, an invalid block elsewhere forces a full parse
+				if(random.nextInt(4)==0) text = original;
+				text = edit(text, random);
+				String incremental = signature(parser.parse(text, ignore));
+				String full = signature(new IncrementalParser().parse(text, ignore));
+				if(!incremental.equals(full)) {
+					mismatches++;
+					System.out.println(example + ", edit " + edit + ": the trees differ for\n" + text);
+				}
+			}
+		}
+		System.out.println(mismatches + " mismatches in " + EXAMPLES.length*edits + " edits");
+		if(mismatches>0) System.exit(1);
+	}
+
+	private static String edit(String text, Random random) {
+		int position = random.nextInt(text.length()+1);
+		if(random.nextBoolean() && position<text.length()) {
+			int length = Math.min(text.length()-position, 1+random.nextInt(8));
+			return text.substring(0, position) + text.substring(position+length);
+		}
+		return text.substring(0, position) + SNIPPETS[random.nextInt(SNIPPETS.length)] + text.substring(position);
+	}
+
+	//the shape of the tree with the text and position of every token
+	private static String signature(ParseTree tree) {
+		StringBuilder signature = new StringBuilder();
+		append(tree, signature);
+		return signature.toString();
+	}
+
+	private static void append(ParseTree tree, StringBuilder signature) {
+		if(tree instanceof TerminalNode) {
+			Token token = ((TerminalNode) tree).getSymbol();
+			if(tree instanceof ErrorNode) signature.append('!');
+			signature.append(token.getText()).append('@').append(token.getLine()).append(':').append(token.getCharPositionInLine())
+					.append(':').append(token.getStartIndex()).append(' ');
+			return;
+		}
+		signature.append('(').append(tree.getClass().getSimpleName()).append(' ');
+		for(int i=0;i<tree.getChildCount();i++) {
+			append(tree.getChild(i), signature);
+		}
+		signature.append(')');
+	}
+}
@@ -0,0 +1,225 @@
+package edu.kuczapski.turtlecut.scripting;
+
+import edu.kuczapski.turtlecut.profiling.JobContext;
+import edu.kuczapski.turtlecut.profiling.RenderJobEvent;
+
+/**
+ * Runs the render jobs of the editor on one daemon thread. A request waits
+ * for the debounce window of its trigger, and requests arriving meanwhile
+ * are merged into it: the newest program is rendered, with the parameters
+ * of the highest priority trigger among them. A request that would render
+ * again the program being rendered, or the last one rendered, at the same
+ * or a higher priority is dropped, together with what was waiting. A new
+ * request cancels a running animation, and a static render when it has a
+ * higher priority, through the job's own {@link CancellationToken} so the
+ * next job cannot clear the cancellation.
+ */
+public class RenderScheduler {
+
+	public enum Trigger{
+		//an edit of the program, rendered without animation once typing pauses
+		EDIT(1, 150, true),
+		//the play button, animated and started right away, again when pressed again
+		PLAY(2, 0, false);
+
+		public final int priority;
+		public final long debounceMillis;
+		//rendering the same program again gives the same picture
+		public final boolean idempotent;
+
+		Trigger(int priority, long debounceMillis, boolean idempotent) {
+			this.priority = priority;
+			this.debounceMillis = debounceMillis;
+			this.idempotent = idempotent;
+		}
+	}
+
+	private static final class Job{
+		final Trigger trigger;
+		final Cutter cutter;
+		final String program;
+		final double speedMMPS;
+		//of the first request merged into the job, the wait is measured from it
+		final long requestedNanos;
+		final long dueNanos;
+		final CancellationToken cancellation = new CancellationToken();
+
+		Job(Trigger trigger, Cutter cutter, String program, double speedMMPS, long requestedNanos, long dueNanos) {
+			this.trigger = trigger;
+			this.cutter = cutter;
+			this.program = program;
+			this.speedMMPS = speedMMPS;
+			this.requestedNanos = requestedNanos;
+			this.dueNanos = dueNanos;
+		}
+
+		boolean covers(Cutter cutter, String program, Trigger trigger) {
+			return trigger.idempotent && !cancellation.isCancelled() && this.cutter==cutter && this.trigger.priority>=trigger.priority && this.program.equals(program);
+		}
+	}
+
+	/**
+	 * Counters of the scheduler since it started.
+	 */
+	public static final class Metrics{
+		public final long requested;
+		public final long merged;
+		public final long dropped;
+		public final long cancelled;
+		public final long completed;
+		//time from the first request of a job to its start, over the started jobs
+		public final double averageQueueLatencyMillis;
+		public final double maxQueueLatencyMillis;
+
+		private Metrics(long requested, long merged, long dropped, long cancelled, long completed,
+				double averageQueueLatencyMillis, double maxQueueLatencyMillis) {
+			this.requested = requested;
+			this.merged = merged;
+			this.dropped = dropped;
+			this.cancelled = cancelled;
+			this.completed = completed;
+			this.averageQueueLatencyMillis = averageQueueLatencyMillis;
+			this.maxQueueLatencyMillis = maxQueueLatencyMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("requested %d, merged %d, dropped %d, cancelled %d, completed %d, queue latency %.1f ms avg %.1f ms max",
+					requested, merged, dropped, cancelled, completed, averageQueueLatencyMillis, maxQueueLatencyMillis);
+		}
+	}
+
+	//longest a request waits for the requests merged after it
+	private static final long MAX_DEFER_MILLIS = 500;
+
+	private final Object monitor = new Object();
+	private final Thread thread;
+
+	private Job pendingJob;
+	private Job runningJob;
+	private Job completedJob;
+
+	private long requested;
+	private long merged;
+	private long dropped;
+	private long cancelled;
+	private long completed;
+	private long started;
+	private long totalQueueLatencyNanos;
+	private long maxQueueLatencyNanos;
+
+	public RenderScheduler() {
+		thread = new Thread(this::run, "render-scheduler");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void request(Trigger trigger, Cutter cutter, String program, double speedMMPS) {
+		long now = System.nanoTime();
+		synchronized (monitor) {
+			requested++;
+			//back to the program being rendered, e.g. an edit undone while it waited
+			Job current = runningJob!=null ? runningJob : completedJob;
+			if(current!=null && current.covers(cutter, program, trigger)) {
+				if(pendingJob!=null) merged++;
+				pendingJob = null;
+				dropped++;
+				return;
+			}
+
+			Job job;
+			if(pendingJob==null) {
+				job = new Job(trigger, cutter, program, speedMMPS, now, now + trigger.debounceMillis*1_000_000);
+			}else {
+				merged++;
+				Job previous = pendingJob;
+				Trigger mergedTrigger = previous.trigger.priority>trigger.priority ? previous.trigger : trigger;
+				double mergedSpeed = mergedTrigger==trigger ? speedMMPS : previous.speedMMPS;
+				//the window restarts with each request, unless a more urgent trigger is already waiting,
+				//but not beyond a limit so that the preview follows continuous typing
+				long dueNanos = mergedTrigger==trigger ? now + trigger.debounceMillis*1_000_000 : previous.dueNanos;
+				dueNanos = Math.min(dueNanos, previous.requestedNanos + MAX_DEFER_MILLIS*1_000_000);
+				job = new Job(mergedTrigger, cutter, program, mergedSpeed, previous.requestedNanos, dueNanos);
+			}
+			pendingJob = job;
+
+			//a static render is let to finish so the preview keeps up with typing, the animation is stopped
+			if(runningJob!=null && (job.trigger.priority>runningJob.trigger.priority || !runningJob.trigger.idempotent)) {
+				runningJob.cancellation.cancel();
+			}
+			monitor.notifyAll();
+		}
+	}
+
+	public Metrics getMetrics() {
+		synchronized (monitor) {
+			return new Metrics(requested, merged, dropped, cancelled, completed,
+					started==0 ? 0 : totalQueueLatencyNanos/1e6/started, maxQueueLatencyNanos/1e6);
+		}
+	}
+
+	//stops the thread after cancelling the running job, pending requests are discarded
+	public void shutdown() {
+		synchronized (monitor) {
+			pendingJob = null;
+			if(runningJob!=null) runningJob.cancellation.cancel();
+		}
+		thread.interrupt();
+	}
+
+	private void run() {
+		try {
+			while(!Thread.currentThread().isInterrupted()) {
+				Job job;
+				long latency;
+				synchronized (monitor) {
+					while(true) {
+						if(pendingJob==null) {
+							monitor.wait();
+							continue;
+						}
+						long remainingNanos = pendingJob.dueNanos - System.nanoTime();
+						if(remainingNanos<=0) break;
+						monitor.wait(remainingNanos/1_000_000, (int) (remainingNanos%1_000_000));
+					}
+					job = pendingJob;
+					pendingJob = null;
+					runningJob = job;
+
+					latency = System.nanoTime() - job.requestedNanos;
+					started++;
+					totalQueueLatencyNanos += latency;
+					maxQueueLatencyNanos = Math.max(maxQueueLatencyNanos, latency);
+				}
+
+				RenderJobEvent event = new RenderJobEvent();
+				event.begin();
+				try {
+					job.cutter.execute(job.program, job.speedMMPS, job.cancellation);
+				}catch (Exception e) {
+					e.printStackTrace();
+				}
+				event.trigger = job.trigger.name();
+				event.queueLatency = latency;
+				long previousJob = JobContext.enter(job.cancellation.id);
+				//a cancelled job may have left the display list of the previous one
+				DisplayList displayList = job.cancellation.isCancelled() ? null : job.cutter.getDisplayList();
+				event.finish(job.program.length(), displayList==null ? 0 : displayList.getSegmentCount(), job.cancellation.isCancelled());
+				JobContext.exit(previousJob);
+
+				synchronized (monitor) {
+					runningJob = null;
+					if(job.cancellation.isCancelled()) {
+						cancelled++;
+						completedJob = null;
+					}else {
+						completed++;
+						completedJob = job;
+					}
+				}
+			}
+		}catch (InterruptedException e) {
+			//shut down
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package edu.kuczapski.turtlecut.scripting;
+
+import java.util.Arrays;
+
+import edu.kuczapski.turtlecut.scripting.Cutter.CursorState;
+import edu.kuczapski.turtlecut.scripting.DisplayList.Kind;
+import edu.kuczapski.turtlecut.scripting.DisplayList.Primitive;
+
+/**
+ * Growable storage of the primitives of a {@link DisplayList}, one primitive
+ * per row and one primitive array per field, so adding a primitive writes a
+ * few array slots instead of allocating an object. The kind and the mode are
+ * stored as the ordinals of their enums. The arrays are not trimmed when the
+ * compilation ends, copying them would cost more than the unused tail.
+ */
+final class SegmentBuffer {
+
+	//the arrays of one row, to estimate the memory of a compiled program
+	static final int BYTES_PER_PRIMITIVE = 2 + 7*Double.BYTES + 3*Integer.BYTES + 4;
+
+	//the arrays are allocated by the first primitive, the bodies of many repeats hold only a few
+	private static final int INITIAL_CAPACITY = 8;
+
+	private static final Kind[] KINDS = Kind.values();
+	private static final CursorState[] MODES = CursorState.values();
+
+	private int size;
+
+	private byte[] kinds;
+	private byte[] modes;
+	private double[] x1;
+	private double[] y1;
+	//for an instance x2, y2 and turnAngle hold the displacement of the turtle after one iteration
+	private double[] x2;
+	private double[] y2;
+	private double[] startAngle;
+	private double[] turnAngle;
+	private double[] radius;
+	private int[] startLine;
+	private int[] stopLine;
+	//only for instances
+	private int[] count;
+	private DisplayList[] bodies;
+
+	void addMove(double x1, double y1, double x2, double y2, int startLine, int stopLine) {
+		add(Kind.MOVE, CursorState.IDLE, x1, y1, x2, y2, 0, 0, 0, startLine, stopLine, 0, null);
+	}
+
+	void addTurn(double x, double y, double startAngle, double turnAngle, int startLine, int stopLine) {
+		add(Kind.TURN, CursorState.IDLE, x, y, x, y, startAngle, turnAngle, 0, startLine, stopLine, 0, null);
+	}
+
+	void addLine(CursorState mode, double x1, double y1, double x2, double y2, int startLine, int stopLine) {
+		add(Kind.LINE, mode, x1, y1, x2, y2, 0, 0, 0, startLine, stopLine, 0, null);
+	}
+
+	//the arc is centered on (centerX, centerY), starts at startAngle and sweeps counterclockwise when positive
+	void addArc(CursorState mode, double centerX, double centerY, double radius, double startAngle, double sweepAngle,
+			int startLine, int stopLine) {
+		add(Kind.ARC, mode, centerX, centerY, centerX, centerY, startAngle, sweepAngle, radius, startLine, stopLine, 0, null);
+	}
+
+	void addInstance(double x, double y, double angle, DisplayList body, int count,
+			double deltaX, double deltaY, double deltaAngle, int startLine, int stopLine) {
+		add(Kind.INSTANCE, CursorState.IDLE, x, y, deltaX, deltaY, angle, deltaAngle, 0, startLine, stopLine, count, body);
+	}
+
+	int size() {
+		return size;
+	}
+
+	Kind getKind(int row) {
+		return KINDS[kinds[row]];
+	}
+
+	int getStartLine(int row) {
+		return startLine[row];
+	}
+
+	int getStopLine(int row) {
+		return stopLine[row];
+	}
+
+	DisplayList getBody(int row) {
+		return bodies[row];
+	}
+
+	int getCount(int row) {
+		return count[row];
+	}
+
+	double getX(int row) {
+		return x1[row];
+	}
+
+	double getY(int row) {
+		return y1[row];
+	}
+
+	double getAngle(int row) {
+		return startAngle[row];
+	}
+
+	double getDeltaX(int row) {
+		return x2[row];
+	}
+
+	double getDeltaY(int row) {
+		return y2[row];
+	}
+
+	double getDeltaAngle(int row) {
+		return turnAngle[row];
+	}
+
+	/**
+	 * Fills the primitive with the row, mapped from a local frame placed at
+	 * (x, y) and rotated by angle to the parent frame. Not for instances.
+	 */
+	void load(int row, double x, double y, double angle, double cos, double sin, Primitive primitive) {
+		double ax = x1[row];
+		double ay = y1[row];
+		double bx = x2[row];
+		double by = y2[row];
+		primitive.kind = KINDS[kinds[row]];
+		primitive.mode = MODES[modes[row]];
+		primitive.x1 = x + ax*cos - ay*sin;
+		primitive.y1 = y + ax*sin + ay*cos;
+		primitive.x2 = x + bx*cos - by*sin;
+		primitive.y2 = y + bx*sin + by*cos;
+		primitive.startAngle = startAngle[row] + angle;
+		primitive.turnAngle = turnAngle[row];
+		primitive.radius = radius[row];
+		primitive.startLine = startLine[row];
+		primitive.stopLine = stopLine[row];
+	}
+
+	//same as load() in the frame of the buffer itself, without rounding the coordinates through a rotation
+	void load(int row, Primitive primitive) {
+		primitive.kind = KINDS[kinds[row]];
+		primitive.mode = MODES[modes[row]];
+		primitive.x1 = x1[row];
+		primitive.y1 = y1[row];
+		primitive.x2 = x2[row];
+		primitive.y2 = y2[row];
+		primitive.startAngle = startAngle[row];
+		primitive.turnAngle = turnAngle[row];
+		primitive.radius = radius[row];
+		primitive.startLine = startLine[row];
+		primitive.stopLine = stopLine[row];
+	}
+
+	private void add(Kind kind, CursorState mode, double x1, double y1, double x2, double y2,
+			double startAngle, double turnAngle, double radius, int startLine, int stopLine, int count, DisplayList body) {
+		//doubled, so the copies of a growing buffer add up to less than its final size
+		if(kinds==null || size==kinds.length) allocate(Math.max(INITIAL_CAPACITY, 2*size));
+		int row = size++;
+		this.kinds[row] = (byte) kind.ordinal();
+		this.modes[row] = (byte) mode.ordinal();
+		this.x1[row] = x1;
+		this.y1[row] = y1;
+		this.x2[row] = x2;
+		this.y2[row] = y2;
+		this.startAngle[row] = startAngle;
+		this.turnAngle[row] = turnAngle;
+		this.radius[row] = radius;
+		this.startLine[row] = startLine;
+		this.stopLine[row] = stopLine;
+		this.count[row] = count;
+		this.bodies[row] = body;
+	}
+
+	private void allocate(int capacity) {
+		if(kinds==null) {
+			kinds = new byte[capacity];
+			modes = new byte[capacity];
+			x1 = new double[capacity];
+			y1 = new double[capacity];
+			x2 = new double[capacity];
+			y2 = new double[capacity];
+			startAngle = new double[capacity];
+			turnAngle = new double[capacity];
+			radius = new double[capacity];
+			startLine = new int[capacity];
+			stopLine = new int[capacity];
+			count = new int[capacity];
+			bodies = new DisplayList[capacity];
+			return;
+		}
+		kinds = Arrays.copyOf(kinds, capacity);
+		modes = Arrays.copyOf(modes, capacity);
+		x1 = Arrays.copyOf(x1, capacity);
+		y1 = Arrays.copyOf(y1, capacity);
+		x2 = Arrays.copyOf(x2, capacity);
+		y2 = Arrays.copyOf(y2, capacity);
+		startAngle = Arrays.copyOf(startAngle, capacity);
+		turnAngle = Arrays.copyOf(turnAngle, capacity);
+		radius = Arrays.copyOf(radius, capacity);
+		startLine = Arrays.copyOf(startLine, capacity);
+		stopLine = Arrays.copyOf(stopLine, capacity);
+		count = Arrays.copyOf(count, capacity);
+		bodies = Arrays.copyOf(bodies, capacity);
+	}
+}
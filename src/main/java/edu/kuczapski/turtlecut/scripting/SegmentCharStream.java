@@ -0,0 +1,86 @@
+package edu.kuczapski.turtlecut.scripting;
+
+import javax.swing.text.Segment;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * Character stream over the text of a {@link Segment}, without copying it.
+ * It can be pointed at another segment with {@link #reset(Segment)}, so a
+ * lexer can be reused line after line. Only valid as long as the segment
+ * array is not modified.
+ */
+class SegmentCharStream implements CharStream {
+
+	private char[] array;
+	private int offset;
+	private int count;
+	private int index;
+
+	public SegmentCharStream() {
+	}
+
+	public SegmentCharStream(Segment text) {
+		reset(text);
+	}
+
+	public void reset(Segment text) {
+		this.array = text.array;
+		this.offset = text.offset;
+		this.count = text.count;
+		this.index = 0;
+	}
+
+	@Override
+	public void consume() {
+		if(index>=count) throw new IllegalStateException("cannot consume EOF");
+		index++;
+	}
+
+	@Override
+	public int LA(int i) {
+		if(i==0) return 0;
+		int position = i<0 ? index+i : index+i-1;
+		if(position<0 || position>=count) return IntStream.EOF;
+		return array[offset+position];
+	}
+
+	@Override
+	public int mark() {
+		return -1;
+	}
+
+	@Override
+	public void release(int marker) {
+	}
+
+	@Override
+	public int index() {
+		return index;
+	}
+
+	@Override
+	public void seek(int index) {
+		this.index = Math.min(index, count);
+	}
+
+	@Override
+	public int size() {
+		return count;
+	}
+
+	@Override
+	public String getSourceName() {
+		return IntStream.UNKNOWN_SOURCE_NAME;
+	}
+
+	@Override
+	public String getText(Interval interval) {
+		int start = Math.max(0, interval.a);
+		int stop = Math.min(count-1, interval.b);
+		if(stop<start) return "";
+		return new String(array, offset+start, stop-start+1);
+	}
+}
@@ -0,0 +1,34 @@
+package edu.kuczapski.turtlecut.scripting;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 digests, for the keys of the compile cache and the names of the
+ * backup chunks.
+ */
+public final class Sha256 {
+
+	private Sha256() {
+	}
+
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			//every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	//digest of content[from, to) as lower case hex
+	public static String hex(byte[] content, int from, int to) {
+		MessageDigest digest = newDigest();
+		digest.update(content, from, to-from);
+		StringBuilder hex = new StringBuilder();
+		for(byte b : digest.digest()) {
+			hex.append(Character.forDigit((b>>4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,515 @@
+package edu.kuczapski.turtlecut.scripting;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.RuleNode;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import edu.kuczapski.turtlecut.profiling.CompileEvent;
+import edu.kuczapski.turtlecut.profiling.LexEvent;
+import edu.kuczapski.turtlecut.profiling.ParseEvent;
+import edu.kuczapski.turtlecut.scripting.Cutter.CursorState;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.CircleContext;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.CoordinateContext;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.CutContext;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.DegreesContext;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.DrawContext;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.EndCoordinateContext;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.LengthContext;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.LineContext;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.MovetoContext;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.ProgramContext;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.RepeateContext;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.SetCanvasContext;
+import edu.kuczapski.turtlecut.scripting.TurtleParser.StartCoordinateContext;
+
+/**
+ * Interprets a parsed Turtle program once and records what the turtle does
+ * into a {@link DisplayList}. Nothing is drawn here.
+ */
+public class TurtleCompiler extends TurtleBaseVisitor<Object>{
+
+	private static final String[] WARM_UP_PROGRAMS = {"first.cut", "lid.cut"};
+
+	//integers up to 2^53 and powers of ten up to 10^22 are exact doubles
+	private static final long MAX_EXACT_DIGITS = 1L << 53;
+	private static final double[] EXACT_POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private final double maxCanvasWidthMM;
+	private final double maxCanvasHeightMM;
+	private final double minCanvasWidthMM;
+	private final double minCanvasHeightMM;
+
+	private double canvasWidthMM;
+	private double canvasHeightMM;
+
+	private double curX;
+	private double curY;
+	private double curAngle;
+
+	//the point read last by one of the read...Coordinate methods, kept in fields so reading it allocates nothing
+	private double pointX;
+	private double pointY;
+
+	private CursorState curState = CursorState.IDLE;
+
+	private SegmentBuffer segments;
+	
+	//false once the geometry depends on where the turtle started, i.e. it can not be instanced
+	private boolean relativeOnly = true;
+
+	private volatile boolean stopExecution = false;
+
+	public TurtleCompiler(double maxCanvasWidthMM, double maxCanvasHeightMM) {
+		this.maxCanvasWidthMM = maxCanvasWidthMM;
+		this.maxCanvasHeightMM = maxCanvasHeightMM;
+		this.minCanvasWidthMM = maxCanvasWidthMM / 5;
+		this.minCanvasHeightMM = maxCanvasHeightMM / 5;
+	}
+
+	public static ProgramContext parse(String program) {
+		return parse(program, new ConsoleErrorListener());
+	}
+
+	/**
+	 * Parses with the given listener receiving the syntax errors of both the
+	 * lexer and the parser. The parser recovers, a tree is always returned.
+	 */
+	public static ProgramContext parse(String program, ANTLRErrorListener errorListener) {
+		CharStream input = CharStreams.fromString(program);
+		TurtleLexer lexer = new TurtleLexer(input);
+		lexer.removeErrorListeners();
+		lexer.addErrorListener(errorListener);
+
+		CommonTokenStream tokens = new CommonTokenStream(new FilteredTokenSource(lexer));
+		//lexed up front, so the lexing and the parsing show up apart in the profiling events
+		LexEvent lexEvent = new LexEvent();
+		lexEvent.begin();
+		tokens.fill();
+		lexEvent.tokens = tokens.size();
+		lexEvent.finish(program.length(), 0, false);
+
+		ParseEvent parseEvent = new ParseEvent();
+		parseEvent.begin();
+		ProgramContext tree = parseTwoStage(new TurtleParser(tokens), TurtleParser::program, errorListener);
+		parseEvent.parsedBlocks = tree.commandBlock().size();
+		parseEvent.finish(program.length(), 0, false);
+		return tree;
+	}
+
+	/**
+	 * Runs the rule with SLL prediction first, which is faster but gives up
+	 * at the first syntax error, and only if that fails again from the start
+	 * with full LL prediction, error reporting and recovery. Both share the
+	 * static DFA of the generated parser; the runtime updates it under locks,
+	 * so parsers on several threads can use it at once.
+	 */
+	static <T> T parseTwoStage(TurtleParser parser, Function<TurtleParser, T> rule, ANTLRErrorListener errorListener) {
+		parser.removeErrorListeners();
+		parser.setErrorHandler(new BailErrorStrategy());
+		parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+		try {
+			return rule.apply(parser);
+		}catch (ParseCancellationException e) {
+			//the tokens are buffered, the lexer does not run again
+			parser.reset();
+			parser.addErrorListener(errorListener);
+			parser.setErrorHandler(new DefaultErrorStrategy());
+			parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+			return rule.apply(parser);
+		}
+	}
+
+	/**
+	 * Parses the example programs on the class path, so the lexer and parser
+	 * DFA are already built when the first program is edited.
+	 */
+	public static void warmUp() {
+		for(String name : WARM_UP_PROGRAMS) {
+			try(InputStream in = TurtleCompiler.class.getResourceAsStream("/examples/" + name)) {
+				if(in==null) continue;
+				parse(new String(in.readAllBytes(), StandardCharsets.UTF_8), new BaseErrorListener());
+			}catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public void setStopExecution() {
+		this.stopExecution = true;
+	}
+
+	public boolean isStopped() {
+		return stopExecution;
+	}
+
+	public DisplayList compile(String program) {
+		return compile(parse(program));
+	}
+
+	public DisplayList compile(ProgramContext program) {
+		segments = new SegmentBuffer();
+		curState = CursorState.IDLE;
+		relativeOnly = true;
+		setCanvasSize(maxCanvasWidthMM, maxCanvasHeightMM);
+
+		CompileEvent event = new CompileEvent();
+		event.begin();
+		visitProgram(program);
+
+		DisplayList displayList = new DisplayList(canvasWidthMM, canvasHeightMM, segments);
+		segments = null;
+		event.finish(program.stop==null ? 0 : program.stop.getStopIndex()+1, displayList.getSegmentCount(), stopExecution);
+		return displayList;
+	}
+
+	private void setCanvasSize(double canvasWidthMM, double canvasHeightMM) {
+		if(canvasWidthMM>maxCanvasWidthMM)  canvasWidthMM = maxCanvasWidthMM;
+		if(canvasHeightMM>maxCanvasHeightMM)  canvasHeightMM = maxCanvasHeightMM;
+		if(canvasWidthMM<minCanvasWidthMM)  canvasWidthMM = minCanvasWidthMM;
+		if(canvasHeightMM<minCanvasHeightMM)  canvasHeightMM = minCanvasHeightMM;
+
+		this.canvasWidthMM = canvasWidthMM;
+		this.canvasHeightMM = canvasHeightMM;
+
+		this.curX = canvasWidthMM / 2;
+		this.curY = canvasHeightMM / 2;
+		this.curAngle = Math.PI / 2;
+	}
+
+	@Override
+	public Object visitProgram(ProgramContext ctx) {
+		if(stopExecution) return null;
+		return super.visitProgram(ctx);
+	}
+
+	@Override
+	protected boolean shouldVisitNextChild(RuleNode node, Object currentResult) {
+		if(stopExecution) return false;
+		return super.shouldVisitNextChild(node, currentResult);
+	}
+
+	@Override
+	public Object visitRepeate(RepeateContext ctx) {
+		if(stopExecution) return null;
+
+		TerminalNode countToken = ctx.NUM();
+
+		int count = Integer.parseInt(countToken.getText());
+
+		if(count>1 && !containsCoordinates(ctx.commandBlock()) && instantiate(ctx, count)) {
+			return null;
+		}
+
+		for(int i=0;i<count;i++) {
+			visitCommandBlock(ctx.commandBlock());
+		}
+
+		return null;
+	}
+
+	/**
+	 * Compiles the repeated block once in the local frame of the turtle and
+	 * records it as an instance. Returns false if the block turned out to
+	 * depend on the absolute turtle position or heading, in which case
+	 * nothing is recorded and the repeat has to be unrolled.
+	 */
+	private boolean instantiate(RepeateContext ctx, int count) {
+		double startX = curX;
+		double startY = curY;
+		double startAngle = curAngle;
+		SegmentBuffer outerSegments = segments;
+		boolean outerRelativeOnly = relativeOnly;
+		
+		SegmentBuffer bodySegments = new SegmentBuffer();
+		boolean bodyRelativeOnly;
+		double bodyEndX;
+		double bodyEndY;
+		double bodyEndAngle;
+		try {
+			curX = 0;
+			curY = 0;
+			curAngle = 0;
+			segments = bodySegments;
+			relativeOnly = true;
+			
+			visitCommandBlock(ctx.commandBlock());
+			
+			bodyRelativeOnly = relativeOnly;
+			bodyEndX = curX;
+			bodyEndY = curY;
+			bodyEndAngle = curAngle;
+		}finally {
+			curX = startX;
+			curY = startY;
+			curAngle = startAngle;
+			segments = outerSegments;
+			relativeOnly = outerRelativeOnly;
+		}
+		
+		if(!bodyRelativeOnly || stopExecution) return false;
+		
+		DisplayList body = new DisplayList(canvasWidthMM, canvasHeightMM, bodySegments);
+		segments.addInstance(startX, startY, startAngle, body, count,
+				bodyEndX, bodyEndY, bodyEndAngle, ctx.getStart().getLine(), ctx.getStop().getLine());
+		
+		//same accumulation as the replay of the instance, so later commands continue where the last copy ended
+		double x = startX;
+		double y = startY;
+		double angle = startAngle;
+		for(int i=0;i<count;i++) {
+			double cos = Math.cos(angle);
+			double sin = Math.sin(angle);
+			x += bodyEndX*cos - bodyEndY*sin;
+			y += bodyEndX*sin + bodyEndY*cos;
+			angle += bodyEndAngle;
+		}
+		curX = x;
+		curY = y;
+		curAngle = Math.atan2(Math.sin(angle), Math.cos(angle));
+		
+		return true;
+	}
+	
+	private static boolean containsCoordinates(ParseTree tree) {
+		if(tree instanceof CoordinateContext) return true;
+		for(int i=0;i<tree.getChildCount();i++) {
+			if(containsCoordinates(tree.getChild(i))) return true;
+		}
+		return false;
+	}
+	
+	@Override
+	public Object visitCut(CutContext ctx) {
+		if(stopExecution) return null;
+
+		CursorState prevState = curState;
+		try {
+			curState = CursorState.CUTTING;
+			return super.visitCut(ctx);
+		}finally {
+			curState = prevState;
+		}
+	}
+
+	@Override
+	public Object visitDraw(DrawContext ctx) {
+		if(stopExecution) return null;
+
+		CursorState prevState = curState;
+		try {
+			curState = CursorState.DRAWING;
+			return super.visitDraw(ctx);
+		}finally {
+			curState = prevState;
+		}
+	}
+
+	@Override
+	public Object visitLine(LineContext ctx) {
+		if(stopExecution) return null;
+
+		readStartCoordinate(ctx.startCoordinate());
+		moveTo(pointX, pointY, ctx);
+
+		readEndCoordinate(ctx.endCoordinate());
+		double endX = pointX;
+		double endY = pointY;
+
+		double dirX = endX - curX;
+		double dirY = endY - curY;
+		if(dirX==0 && dirY==0) {
+			//atan2 of a null vector points the turtle to an absolute direction
+			relativeOnly = false;
+		}
+		double newAngle =  Math.atan2(dirY, dirX);
+		if(Double.isFinite(newAngle)) {
+			turnTo(newAngle, ctx);
+		}
+
+		if(curState == CursorState.CUTTING || curState == CursorState.DRAWING) {
+			segments.addLine(curState, curX, curY, endX, endY,
+					ctx.getStart().getLine(), ctx.getStop().getLine());
+			curX = endX;
+			curY = endY;
+		}else {
+			moveTo(endX, endY, ctx);
+		}
+
+		return null;
+	}
+
+	/**
+	 * A full circle around the given center, or around the turtle. It starts
+	 * in the direction the turtle is heading, so repeated circles rotate with
+	 * it, and the turtle itself does not move.
+	 */
+	@Override
+	public Object visitCircle(CircleContext ctx) {
+		if(stopExecution) return null;
+
+		double centerX = curX;
+		double centerY = curY;
+		if(ctx.coordinate()!=null) {
+			readCoordinate(ctx.coordinate());
+			centerX = pointX;
+			centerY = pointY;
+		}
+		double radius = readLength(ctx.length());
+
+		if(radius>0 && (curState == CursorState.CUTTING || curState == CursorState.DRAWING)) {
+			segments.addArc(curState, centerX, centerY, radius, curAngle, 2*Math.PI,
+					ctx.getStart().getLine(), ctx.getStop().getLine());
+		}
+		return null;
+	}
+
+	private void moveTo(double x, double y, ParserRuleContext ctx) {
+		if(!isSamePoint(x, y, curX, curY)) {
+			segments.addMove(curX, curY, x, y,
+					ctx.getStart().getLine(), ctx.getStop().getLine());
+		}
+		curX = x;
+		curY = y;
+	}
+
+	//exact comparison, where a point with a NaN coordinate only equals another such point
+	private static boolean isSamePoint(double x1, double y1, double x2, double y2) {
+		boolean nan1 = Double.isNaN(x1) || Double.isNaN(y1);
+		boolean nan2 = Double.isNaN(x2) || Double.isNaN(y2);
+		if(nan1 || nan2) return nan1 && nan2;
+		return x1==x2 && y1==y2;
+	}
+
+	private void turnTo(double newAngle, ParserRuleContext ctx) {
+
+		double dif = newAngle-curAngle;
+
+		if(dif>Math.PI) dif = dif - 2*Math.PI;
+		if(dif<-Math.PI) dif = dif + 2*Math.PI;
+
+		if(dif!=0) {
+			segments.addTurn(curX, curY, curAngle, dif,
+					ctx.getStart().getLine(), ctx.getStop().getLine());
+		}
+
+		curAngle = newAngle;
+	}
+
+	@Override
+	public Object visitMoveto(MovetoContext ctx) {
+		readCoordinate(ctx.coordinate());
+		moveTo(pointX, pointY, ctx);
+		return null;
+	}
+
+	private void readCoordinate(CoordinateContext ctx) {
+		relativeOnly = false;
+		pointX = parseNumber(ctx.NUM(0).getText())*10;
+		pointY = parseNumber(ctx.NUM(1).getText())*10;
+	}
+
+	private void readStartCoordinate(StartCoordinateContext ctx) {
+		if(ctx!=null &&  ctx.coordinate()!=null) {
+			readCoordinate(ctx.coordinate());
+		}else {
+			pointX = curX;
+			pointY = curY;
+		}
+	}
+
+	private void readEndCoordinate(EndCoordinateContext ctx) {
+		if( ctx.coordinate()!=null) {
+			readCoordinate(ctx.coordinate());
+		}else {
+			double degrees = readDegrees(ctx.degrees());
+			double length = readLength(ctx.length());
+
+			double dirAngle = curAngle + Math.toRadians(degrees);
+
+			pointX = curX + length * Math.cos(dirAngle);
+			pointY = curY + length * Math.sin(dirAngle);
+		}
+	}
+
+	private static double readLength(LengthContext ctx) {
+		  double lenght = parseNumber(ctx.NUM().getText());
+
+		  if(ctx.children.size()>1) {
+			  ParseTree uom = ctx.children.get(1);
+			  switch (uom.getText().toLowerCase()) {
+				case "mm": lenght *= 1;
+				break;
+				case "cm": lenght *= 10;
+				break;
+
+				default: lenght *= 10;
+			  }
+		  }
+
+		  return lenght;
+	}
+
+	private static double readDegrees(DegreesContext ctx) {
+		if(ctx.NUM()!=null) {
+			return parseNumber(ctx.NUM().getText());
+		}else {
+			 //a single keyword, the text of the token is kept and the text of the rule would be built again
+			 switch(ctx.getStart().getText().toLowerCase()) {
+			 	case "stanga": return 90.0;
+			 	case "dreapta": return -90.0;
+			 	case "inainte": return 0.0;
+			 	default: throw new IllegalArgumentException("Unknown direction: "+ctx.start.toString());
+			 }
+		}
+	}
+
+	/**
+	 * Same value as Double.parseDouble for the NUM tokens, digits with an
+	 * optional fraction, without its temporary buffers. The digits make an
+	 * exact long and a power of ten up to 10^22 is an exact double, so one
+	 * division rounds like the parser does; longer numbers are left to it.
+	 */
+	static double parseNumber(String text) {
+		long digits = 0;
+		int fractionDigits = -1;
+		for(int i=0;i<text.length();i++) {
+			char c = text.charAt(i);
+			if(c=='.' && fractionDigits<0) {
+				fractionDigits = 0;
+				continue;
+			}
+			if(c<'0' || c>'9' || digits>MAX_EXACT_DIGITS) return Double.parseDouble(text);
+			digits = digits*10 + (c-'0');
+			if(fractionDigits>=0) fractionDigits++;
+		}
+		if(digits>MAX_EXACT_DIGITS || fractionDigits>=EXACT_POWERS_OF_TEN.length) return Double.parseDouble(text);
+		return fractionDigits<=0 ? digits : digits / EXACT_POWERS_OF_TEN[fractionDigits];
+	}
+
+	@Override
+	public Object visitSetCanvas(SetCanvasContext ctx) {
+		if(ctx.length().size()==2) {
+			setCanvasSize(readLength(ctx.length(0)), readLength(ctx.length(1)));
+		}
+		return null;
+	}
+}
@@ -0,0 +1,259 @@
+package edu.kuczapski.turtlecut.toolpath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Nesting of polylines inside closed contours. The parent of a polyline is
+ * the smallest closed contour around it burned with at least the same power,
+ * so it is cut loose by that contour and has to be burned before it.
+ * <p>
+ * Candidate contours are found through a grid over their bounding boxes,
+ * only those whose box holds the test point get the point in polygon test.
+ * Arcs are flattened to chords for the area and the point in polygon test.
+ */
+public class ContainmentTree {
+
+	private static final int MAX_CELLS_PER_AXIS = 64;
+	//distance of the chords from the arcs they replace, the resolution of the G-code
+	private static final double FLATTEN_TOLERANCE_MM = 0.01;
+
+	private final List<Polyline> polylines;
+	private final int[] parents;
+	private final int[] childCounts;
+
+	private ContainmentTree(List<Polyline> polylines, int[] parents) {
+		this.polylines = polylines;
+		this.parents = parents;
+		this.childCounts = new int[parents.length];
+		for(int parent : parents) {
+			if(parent>=0) childCounts[parent]++;
+		}
+	}
+
+	public static ContainmentTree build(List<Polyline> polylines) {
+		int count = polylines.size();
+		int[] parents = new int[count];
+		Arrays.fill(parents, -1);
+
+		List<Contour> contours = new ArrayList<>();
+		double[] areas = new double[count];
+		for(int i=0;i<count;i++) {
+			Polyline polyline = polylines.get(i);
+			if(!polyline.isClosed()) continue;
+			Contour contour = new Contour(i, polyline);
+			contours.add(contour);
+			areas[i] = contour.area;
+		}
+		if(contours.isEmpty()) return new ContainmentTree(polylines, parents);
+
+		ContourGrid grid = new ContourGrid(contours);
+		for(int i=0;i<count;i++) {
+			Polyline polyline = polylines.get(i);
+			//the middle of the first segment, a vertex may be shared with the enclosing contour
+			double x = (polyline.getX(0) + polyline.getX(1))/2;
+			double y = (polyline.getY(0) + polyline.getY(1))/2;
+			double sweep = polyline.getSweep(1);
+			if(sweep!=0) {
+				//the middle of the arc, the middle of its chord can be outside a contour the arc is in
+				double centerX = polyline.getArcCenterX(1);
+				double centerY = polyline.getArcCenterY(1);
+				double dx = polyline.getX(0)-centerX;
+				double dy = polyline.getY(0)-centerY;
+				double cos = Math.cos(sweep/2);
+				double sin = Math.sin(sweep/2);
+				x = centerX + dx*cos - dy*sin;
+				y = centerY + dx*sin + dy*cos;
+			}
+			double area = areas[i];
+
+			Contour parent = null;
+			for(Contour contour : grid.candidates(x, y)) {
+				if(contour.index==i || contour.polyline.getPower()<polyline.getPower()) continue;
+				//strictly larger, so duplicated contours do not end up as each other's parent
+				if(contour.area<=area+Toolpath.JOIN_TOLERANCE_MM) continue;
+				if(parent!=null && contour.area>=parent.area) continue;
+				if(!contour.contains(x, y)) continue;
+				parent = contour;
+			}
+			if(parent!=null) parents[i] = parent.index;
+		}
+		return new ContainmentTree(polylines, parents);
+	}
+
+	public List<Polyline> getPolylines() {
+		return polylines;
+	}
+
+	/**
+	 * Index of the contour enclosing the given polyline, -1 if there is none.
+	 */
+	public int getParent(int index) {
+		return parents[index];
+	}
+
+	public int getChildCount(int index) {
+		return childCounts[index];
+	}
+
+	/**
+	 * Program order with every contour moved after the polylines it encloses.
+	 * Polylines that are not nested keep their relative order.
+	 */
+	public List<Polyline> getInsideOutOrder() {
+		List<List<Integer>> children = new ArrayList<>(parents.length);
+		for(int i=0;i<parents.length;i++) {
+			children.add(new ArrayList<>());
+		}
+		for(int i=0;i<parents.length;i++) {
+			if(parents[i]>=0) children.get(parents[i]).add(i);
+		}
+
+		List<Polyline> result = new ArrayList<>(parents.length);
+		boolean[] emitted = new boolean[parents.length];
+		int[] stack = new int[parents.length];
+		int[] next = new int[parents.length];
+		for(int root=0;root<parents.length;root++) {
+			if(emitted[root]) continue;
+			//post order walk, iterative since contours can be nested deeply
+			int depth = 0;
+			stack[0] = root;
+			next[0] = 0;
+			while(depth>=0) {
+				int index = stack[depth];
+				List<Integer> nested = children.get(index);
+				if(next[depth]<nested.size()) {
+					int child = nested.get(next[depth]++);
+					if(!emitted[child]) {
+						depth++;
+						stack[depth] = child;
+						next[depth] = 0;
+					}
+					continue;
+				}
+				emitted[index] = true;
+				result.add(polylines.get(index));
+				depth--;
+			}
+		}
+		return result;
+	}
+
+	private static class Contour{
+		final int index;
+		final Polyline polyline;
+		//the polyline with its arcs flattened
+		final Polyline outline;
+		final double area;
+		final double minX;
+		final double minY;
+		final double maxX;
+		final double maxY;
+
+		Contour(int index, Polyline polyline) {
+			this.index = index;
+			this.polyline = polyline;
+			this.outline = polyline.flattened(FLATTEN_TOLERANCE_MM);
+			this.area = area(outline);
+
+			double minX = Double.POSITIVE_INFINITY;
+			double minY = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY;
+			double maxY = Double.NEGATIVE_INFINITY;
+			for(int i=0;i<outline.getPointCount();i++) {
+				minX = Math.min(minX, outline.getX(i));
+				minY = Math.min(minY, outline.getY(i));
+				maxX = Math.max(maxX, outline.getX(i));
+				maxY = Math.max(maxY, outline.getY(i));
+			}
+			this.minX = minX;
+			this.minY = minY;
+			this.maxX = maxX;
+			this.maxY = maxY;
+		}
+
+		static double area(Polyline polyline) {
+			double area = 0;
+			for(int i=1;i<polyline.getPointCount();i++) {
+				area += polyline.getX(i-1)*polyline.getY(i) - polyline.getX(i)*polyline.getY(i-1);
+			}
+			return Math.abs(area)/2;
+		}
+
+		//even-odd rule, the contour is closed so the last point repeats the first one
+		boolean contains(double x, double y) {
+			if(x<minX || x>maxX || y<minY || y>maxY) return false;
+			boolean inside = false;
+			for(int i=1;i<outline.getPointCount();i++) {
+				double x1 = outline.getX(i-1);
+				double y1 = outline.getY(i-1);
+				double x2 = outline.getX(i);
+				double y2 = outline.getY(i);
+				if((y1>y) != (y2>y) && x < x1 + (y-y1)*(x2-x1)/(y2-y1)) {
+					inside = !inside;
+				}
+			}
+			return inside;
+		}
+	}
+
+	/**
+	 * Uniform grid where every contour is listed in all the cells its bounding
+	 * box overlaps.
+	 */
+	private static class ContourGrid{
+		private final double minX;
+		private final double minY;
+		private final double cellWidth;
+		private final double cellHeight;
+		private final int columns;
+		private final int rows;
+		private final List<List<Contour>> cells;
+
+		ContourGrid(List<Contour> contours) {
+			double minX = Double.POSITIVE_INFINITY;
+			double minY = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY;
+			double maxY = Double.NEGATIVE_INFINITY;
+			for(Contour contour : contours) {
+				minX = Math.min(minX, contour.minX);
+				minY = Math.min(minY, contour.minY);
+				maxX = Math.max(maxX, contour.maxX);
+				maxY = Math.max(maxY, contour.maxY);
+			}
+			this.minX = minX;
+			this.minY = minY;
+
+			int size = Math.max(1, Math.min(MAX_CELLS_PER_AXIS, (int) Math.sqrt(contours.size())));
+			this.columns = size;
+			this.rows = size;
+			this.cellWidth = Math.max(maxX-minX, 1e-3)/columns;
+			this.cellHeight = Math.max(maxY-minY, 1e-3)/rows;
+
+			this.cells = new ArrayList<>(columns*rows);
+			for(int i=0;i<columns*rows;i++) {
+				cells.add(new ArrayList<>());
+			}
+			for(Contour contour : contours) {
+				for(int r=row(contour.minY);r<=row(contour.maxY);r++) {
+					for(int c=column(contour.minX);c<=column(contour.maxX);c++) {
+						cells.get(r*columns + c).add(contour);
+					}
+				}
+			}
+		}
+
+		private int column(double x) {
+			return Math.max(0, Math.min(columns-1, (int) ((x-minX)/cellWidth)));
+		}
+
+		private int row(double y) {
+			return Math.max(0, Math.min(rows-1, (int) ((y-minY)/cellHeight)));
+		}
+
+		List<Contour> candidates(double x, double y) {
+			return cells.get(row(y)*columns + column(x));
+		}
+	}
+}
@@ -0,0 +1,337 @@
+package edu.kuczapski.turtlecut.toolpath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reorders polylines to shorten the rapid moves between them. Polylines are
+ * grouped by power and the groups are burned lowest power first, so every
+ * engraving is done before the part is cut loose. Inside a group the order
+ * is built greedily, always jumping to the nearest free polyline end found
+ * through a grid over the endpoints, then refined with a windowed 2-opt
+ * pass. Open polylines may be burned in reverse.
+ * <p>
+ * With inside-out ordering enabled, a closed contour only becomes a
+ * candidate once everything it encloses is burned (see
+ * {@link ContainmentTree}), and 2-opt never reverses a run holding both a
+ * contour and something nested in it.
+ */
+public class CutOrderOptimizer {
+
+	//how far ahead 2-opt looks for a subsequence to reverse, keeps a pass linear in the polyline count
+	private static final int TWO_OPT_WINDOW = 64;
+	private static final int TWO_OPT_MAX_PASSES = 8;
+	private static final double MIN_GAIN_MM = 1e-6;
+
+	private final double startX;
+	private final double startY;
+
+	private boolean insideOut;
+
+	public CutOrderOptimizer(double startX, double startY) {
+		this.startX = startX;
+		this.startY = startY;
+	}
+
+	public void setInsideOut(boolean insideOut) {
+		this.insideOut = insideOut;
+	}
+
+	public List<Polyline> optimize(List<Polyline> polylines) {
+		Map<Integer, List<Polyline>> byPower = new TreeMap<>();
+		for(Polyline polyline : polylines) {
+			byPower.computeIfAbsent(polyline.getPower(), p->new ArrayList<>()).add(polyline);
+		}
+
+		List<Polyline> result = new ArrayList<>(polylines.size());
+		double x = startX;
+		double y = startY;
+		for(List<Polyline> group : byPower.values()) {
+			Route route = nearestNeighbour(group, insideOut ? ContainmentTree.build(group) : null, x, y);
+			route.twoOpt(x, y);
+			route.appendTo(result);
+
+			Polyline last = result.get(result.size()-1);
+			x = last.getEndX();
+			y = last.getEndY();
+		}
+		return result;
+	}
+
+	//Math.hypot guards against overflow we cannot hit in millimeters and is much slower
+	private static double distance(double dx, double dy) {
+		return Math.sqrt(dx*dx + dy*dy);
+	}
+
+	private static Route nearestNeighbour(List<Polyline> polylines, ContainmentTree tree, double x, double y) {
+		int count = polylines.size();
+		Route route = new Route(polylines, tree);
+		EndpointGrid grid = new EndpointGrid(polylines);
+
+		//polylines still enclosing something unburned are kept out of the grid
+		int[] pending = new int[count];
+		for(int i=0;i<count;i++) {
+			pending[i] = tree==null ? 0 : tree.getChildCount(i);
+			if(pending[i]==0) grid.add(i);
+		}
+
+		for(int i=0;i<count;i++) {
+			int endpoint = grid.nearest(x, y);
+			int index = endpoint/2;
+			boolean reversed = (endpoint&1) == 1;
+			grid.remove(index);
+
+			int parent = tree==null ? -1 : tree.getParent(index);
+			if(parent>=0 && --pending[parent]==0) {
+				grid.add(parent);
+			}
+
+			route.order[i] = index;
+			route.reversed[i] = reversed;
+			Polyline polyline = polylines.get(index);
+			x = reversed ? polyline.getStartX() : polyline.getEndX();
+			y = reversed ? polyline.getStartY() : polyline.getEndY();
+		}
+		return route;
+	}
+
+	/**
+	 * Visiting order of a group of polylines, each one possibly reversed.
+	 */
+	private static class Route{
+		private final List<Polyline> polylines;
+		private final int[] order;
+		private final boolean[] reversed;
+
+		private final ContainmentTree tree;
+		//marks the parents of the run examined by 2-opt, stamped with the run start to avoid clearing
+		private final int[] parentStamps;
+		private int stamp;
+
+		Route(List<Polyline> polylines, ContainmentTree tree) {
+			this.polylines = polylines;
+			this.order = new int[polylines.size()];
+			this.reversed = new boolean[polylines.size()];
+			this.tree = tree;
+			this.parentStamps = tree==null ? null : new int[polylines.size()];
+		}
+
+		private double startX(int i) {
+			Polyline polyline = polylines.get(order[i]);
+			return reversed[i] ? polyline.getEndX() : polyline.getStartX();
+		}
+
+		private double startY(int i) {
+			Polyline polyline = polylines.get(order[i]);
+			return reversed[i] ? polyline.getEndY() : polyline.getStartY();
+		}
+
+		private double endX(int i) {
+			Polyline polyline = polylines.get(order[i]);
+			return reversed[i] ? polyline.getStartX() : polyline.getEndX();
+		}
+
+		private double endY(int i) {
+			Polyline polyline = polylines.get(order[i]);
+			return reversed[i] ? polyline.getStartY() : polyline.getEndY();
+		}
+
+		/**
+		 * Reversing the run i..j (and the direction of every polyline in it)
+		 * only changes the two rapid moves at its ends, so each candidate is
+		 * evaluated in constant time.
+		 */
+		void twoOpt(double fromX, double fromY) {
+			int count = order.length;
+			for(int pass=0;pass<TWO_OPT_MAX_PASSES;pass++) {
+				boolean improved = false;
+				for(int i=0;i<count;i++) {
+					double ax = i==0 ? fromX : endX(i-1);
+					double ay = i==0 ? fromY : endY(i-1);
+					int last = Math.min(count-1, i+TWO_OPT_WINDOW);
+					stamp++;
+					for(int j=i;j<=last;j++) {
+						if(tree!=null) {
+							//reversing would put this contour before a polyline it encloses
+							if(parentStamps[order[j]]==stamp) break;
+							int parent = tree.getParent(order[j]);
+							if(parent>=0) parentStamps[parent] = stamp;
+						}
+						double before = distance(startX(i)-ax, startY(i)-ay);
+						double after = distance(endX(j)-ax, endY(j)-ay);
+						if(j+1<count) {
+							before += distance(startX(j+1)-endX(j), startY(j+1)-endY(j));
+							after += distance(startX(j+1)-startX(i), startY(j+1)-startY(i));
+						}
+						if(before-after > MIN_GAIN_MM) {
+							reverse(i, j);
+							improved = true;
+						}
+					}
+				}
+				if(!improved) break;
+			}
+		}
+
+		private void reverse(int i, int j) {
+			while(i<j) {
+				int index = order[i];
+				order[i] = order[j];
+				order[j] = index;
+				boolean flag = reversed[i];
+				reversed[i] = !reversed[j];
+				reversed[j] = !flag;
+				i++;
+				j--;
+			}
+			if(i==j) reversed[i] = !reversed[i];
+		}
+
+		void appendTo(List<Polyline> result) {
+			for(int i=0;i<order.length;i++) {
+				Polyline polyline = polylines.get(order[i]);
+				result.add(reversed[i] ? polyline.reversed() : polyline);
+			}
+		}
+	}
+
+	/**
+	 * Uniform grid over both endpoints of the polylines that can be burned
+	 * next. Endpoint ids are index*2 for the start and index*2+1 for the end.
+	 * Used polylines are removed, so queries only see what is still free.
+	 */
+	private static class EndpointGrid{
+		private static final int MAX_CELLS_PER_AXIS = 1024;
+
+		private final List<Polyline> polylines;
+		private final double minX;
+		private final double minY;
+		private final double cellSize;
+		private final int columns;
+		private final int rows;
+
+		private final int[][] cells;
+		private final int[] cellSizes;
+
+		EndpointGrid(List<Polyline> polylines) {
+			this.polylines = polylines;
+
+			double minX = Double.POSITIVE_INFINITY;
+			double minY = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY;
+			double maxY = Double.NEGATIVE_INFINITY;
+			for(Polyline polyline : polylines) {
+				minX = Math.min(minX, Math.min(polyline.getStartX(), polyline.getEndX()));
+				minY = Math.min(minY, Math.min(polyline.getStartY(), polyline.getEndY()));
+				maxX = Math.max(maxX, Math.max(polyline.getStartX(), polyline.getEndX()));
+				maxY = Math.max(maxY, Math.max(polyline.getStartY(), polyline.getEndY()));
+			}
+			this.minX = minX;
+			this.minY = minY;
+
+			//aim for about one polyline per cell
+			double width = Math.max(maxX-minX, 1e-3);
+			double height = Math.max(maxY-minY, 1e-3);
+			double cellSize = Math.sqrt(width*height/Math.max(1, polylines.size()));
+			cellSize = Math.max(cellSize, Math.max(width, height)/MAX_CELLS_PER_AXIS);
+			this.cellSize = cellSize;
+			this.columns = (int) (width/cellSize) + 1;
+			this.rows = (int) (height/cellSize) + 1;
+
+			this.cells = new int[columns*rows][];
+			this.cellSizes = new int[columns*rows];
+		}
+
+		private int column(double x) {
+			return Math.max(0, Math.min(columns-1, (int) ((x-minX)/cellSize)));
+		}
+
+		private int row(double y) {
+			return Math.max(0, Math.min(rows-1, (int) ((y-minY)/cellSize)));
+		}
+
+		private void add(int endpoint, double x, double y) {
+			int cell = row(y)*columns + column(x);
+			int[] entries = cells[cell];
+			if(entries==null) {
+				entries = cells[cell] = new int[4];
+			}else if(cellSizes[cell]==entries.length) {
+				entries = cells[cell] = Arrays.copyOf(entries, entries.length*2);
+			}
+			entries[cellSizes[cell]++] = endpoint;
+		}
+
+		private void remove(int endpoint, double x, double y) {
+			int cell = row(y)*columns + column(x);
+			int[] entries = cells[cell];
+			for(int i=0;i<cellSizes[cell];i++) {
+				if(entries[i]==endpoint) {
+					entries[i] = entries[--cellSizes[cell]];
+					return;
+				}
+			}
+		}
+
+		void add(int index) {
+			Polyline polyline = polylines.get(index);
+			add(2*index, polyline.getStartX(), polyline.getStartY());
+			add(2*index+1, polyline.getEndX(), polyline.getEndY());
+		}
+
+		void remove(int index) {
+			Polyline polyline = polylines.get(index);
+			remove(2*index, polyline.getStartX(), polyline.getStartY());
+			remove(2*index+1, polyline.getEndX(), polyline.getEndY());
+		}
+
+		private double endpointX(int endpoint) {
+			Polyline polyline = polylines.get(endpoint/2);
+			return (endpoint&1)==0 ? polyline.getStartX() : polyline.getEndX();
+		}
+
+		private double endpointY(int endpoint) {
+			Polyline polyline = polylines.get(endpoint/2);
+			return (endpoint&1)==0 ? polyline.getStartY() : polyline.getEndY();
+		}
+
+		/**
+		 * Searches rings of cells around (x, y) until no unvisited ring can
+		 * hold anything closer than the best endpoint found. Returns -1 when
+		 * the grid is empty.
+		 */
+		int nearest(double x, double y) {
+			int column = column(x);
+			int row = row(y);
+			int maxRing = Math.max(columns, rows);
+
+			int best = -1;
+			double bestDistance = Double.POSITIVE_INFINITY;
+			for(int ring=0;ring<=maxRing;ring++) {
+				for(int r=row-ring;r<=row+ring;r++) {
+					if(r<0 || r>=rows) continue;
+					boolean edgeRow = r==row-ring || r==row+ring;
+					int step = edgeRow ? 1 : 2*ring;
+					for(int c=column-ring;c<=column+ring;c+=Math.max(1, step)) {
+						if(c<0 || c>=columns) continue;
+						int cell = r*columns + c;
+						int[] entries = cells[cell];
+						for(int i=0;i<cellSizes[cell];i++) {
+							int endpoint = entries[i];
+							double distance = CutOrderOptimizer.distance(endpointX(endpoint)-x, endpointY(endpoint)-y);
+							//prefer the start on ties so closed polylines keep their direction
+							if(distance<bestDistance || (distance==bestDistance && endpoint<best)) {
+								bestDistance = distance;
+								best = endpoint;
+							}
+						}
+					}
+				}
+				if(best>=0 && bestDistance<=ring*cellSize) break;
+			}
+			return best;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package edu.kuczapski.turtlecut.toolpath;
+
+import java.util.Arrays;
+
+/**
+ * Chain of connected segments burned with the same laser power. Points are
+ * kept in a flat x,y array in canvas millimeters. A segment can be a
+ * circular arc, given by its sweep angle (positive counterclockwise); the
+ * sweeps are only allocated once the first arc is added.
+ */
+public class Polyline {
+
+	private final int power;
+
+	private double[] points;
+	private int pointCount;
+	//sweep of the segment ending at each point, 0 for straight segments
+	private double[] sweeps;
+
+	public Polyline(int power, double startX, double startY) {
+		this.power = power;
+		this.points = new double[8];
+		addPoint(startX, startY);
+	}
+
+	public Polyline reversed() {
+		Polyline reversed = new Polyline(power, getEndX(), getEndY());
+		for(int i=pointCount-2;i>=0;i--) {
+			double sweep = getSweep(i+1);
+			if(sweep!=0) {
+				reversed.addArc(getX(i), getY(i), -sweep);
+			}else {
+				reversed.addPoint(getX(i), getY(i));
+			}
+		}
+		return reversed;
+	}
+
+	public void addPoint(double x, double y) {
+		if(2*pointCount+2 > points.length) {
+			points = Arrays.copyOf(points, points.length*2);
+		}
+		points[2*pointCount] = x;
+		points[2*pointCount+1] = y;
+		pointCount++;
+	}
+
+	/**
+	 * Adds an arc from the last point to (x, y) turning by the given sweep.
+	 * Sweeps of half a turn or more are allowed but less accurate, callers
+	 * split full circles into quarters.
+	 */
+	public void addArc(double x, double y, double sweep) {
+		addPoint(x, y);
+		if(sweeps==null || sweeps.length<pointCount) {
+			sweeps = sweeps==null ? new double[points.length/2] : Arrays.copyOf(sweeps, points.length/2);
+		}
+		sweeps[pointCount-1] = sweep;
+	}
+
+	public double getSweep(int index) {
+		return sweeps==null || index>=sweeps.length ? 0 : sweeps[index];
+	}
+
+	public boolean hasArcs() {
+		return sweeps!=null;
+	}
+
+	//center of the arc ending at the given point, from its chord and sweep
+	public double getArcCenterX(int index) {
+		double dy = getY(index)-getY(index-1);
+		return (getX(index)+getX(index-1))/2 - dy/(2*Math.tan(getSweep(index)/2));
+	}
+
+	public double getArcCenterY(int index) {
+		double dx = getX(index)-getX(index-1);
+		return (getY(index)+getY(index-1))/2 + dx/(2*Math.tan(getSweep(index)/2));
+	}
+
+	public int getPower() {
+		return power;
+	}
+
+	public int getPointCount() {
+		return pointCount;
+	}
+
+	public int getSegmentCount() {
+		return pointCount-1;
+	}
+
+	public double getX(int index) {
+		return points[2*index];
+	}
+
+	public double getY(int index) {
+		return points[2*index+1];
+	}
+
+	public double getStartX() {
+		return getX(0);
+	}
+
+	public double getStartY() {
+		return getY(0);
+	}
+
+	public double getEndX() {
+		return getX(pointCount-1);
+	}
+
+	public double getEndY() {
+		return getY(pointCount-1);
+	}
+
+	public boolean endsAt(double x, double y, double tolerance) {
+		return Math.abs(getEndX()-x)<=tolerance && Math.abs(getEndY()-y)<=tolerance;
+	}
+
+	//at least three segments ending where they started
+	public boolean isClosed() {
+		return pointCount>=4 && endsAt(getStartX(), getStartY(), Toolpath.JOIN_TOLERANCE_MM);
+	}
+
+	public double getLength() {
+		double length = 0;
+		for(int i=1;i<pointCount;i++) {
+			double chord = Math.hypot(getX(i)-getX(i-1), getY(i)-getY(i-1));
+			double sweep = Math.abs(getSweep(i));
+			length += sweep==0 ? chord : chord/(2*Math.sin(sweep/2))*sweep;
+		}
+		return length;
+	}
+
+	/**
+	 * Same path with every arc replaced by chords at most toleranceMM away
+	 * from it, as many as DisplayList.Primitive#getChordCount gives. Returns
+	 * this polyline when it has no arcs.
+	 */
+	public Polyline flattened(double toleranceMM) {
+		if(sweeps==null) return this;
+		Polyline flattened = new Polyline(power, getStartX(), getStartY());
+		for(int i=1;i<pointCount;i++) {
+			double sweep = getSweep(i);
+			if(sweep!=0) {
+				double centerX = getArcCenterX(i);
+				double centerY = getArcCenterY(i);
+				double dx = getX(i-1)-centerX;
+				double dy = getY(i-1)-centerY;
+				double radius = Math.hypot(dx, dy);
+				int chords = radius<=toleranceMM ? 1 : Math.max(1, (int) Math.ceil(Math.abs(sweep)/(2*Math.acos(1 - toleranceMM/radius))));
+				for(int c=1;c<chords;c++) {
+					double angle = sweep*c/chords;
+					double cos = Math.cos(angle);
+					double sin = Math.sin(angle);
+					flattened.addPoint(centerX + dx*cos - dy*sin, centerY + dx*sin + dy*cos);
+				}
+			}
+			flattened.addPoint(getX(i), getY(i));
+		}
+		return flattened;
+	}
+}
@@ -0,0 +1,199 @@
+package edu.kuczapski.turtlecut.toolpath;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Removes straight segments, or parts of them, that retrace a segment
+ * burned earlier with the same power, e.g. the shared edge of two adjacent
+ * squares. Points are snapped to a grid of the G-code resolution first.
+ * Segments are then hashed by the direction and the distance from the
+ * origin of their line, so only segments on the same line are compared;
+ * each line keeps the intervals already burned along it. The first
+ * occurrence in the order of the given polylines is kept, so they should
+ * already be in cut order. Arcs are passed through.
+ */
+public class SegmentDeduplicator {
+
+	public static final double SNAP_TOLERANCE_MM = 0.01;
+	private static final double ANGLE_BUCKET = 1e-3;
+	private static final int ANGLE_BUCKETS = (int) Math.ceil(Math.PI/ANGLE_BUCKET);
+
+	/**
+	 * Points burned along one line, as intervals of the position projected
+	 * on the line direction.
+	 */
+	private static class Line{
+		final double directionX;
+		final double directionY;
+		final double offset;
+		final TreeMap<Double, Double> burned = new TreeMap<>();
+
+		Line(double directionX, double directionY, double offset) {
+			this.directionX = directionX;
+			this.directionY = directionY;
+			this.offset = offset;
+		}
+
+		double distance(double x, double y) {
+			return Math.abs(-directionY*x + directionX*y - offset);
+		}
+
+		double position(double x, double y) {
+			return directionX*x + directionY*y;
+		}
+
+		/**
+		 * Returns the parts of [from, to] not burned yet, in increasing order,
+		 * and marks the whole interval as burned.
+		 */
+		List<double[]> burn(double from, double to) {
+			List<double[]> free = new ArrayList<>(1);
+			double start = from;
+
+			Map.Entry<Double, Double> previous = burned.floorEntry(from);
+			if(previous!=null && previous.getValue()>start) start = previous.getValue();
+			for(Map.Entry<Double, Double> interval : burned.subMap(from, true, to, false).entrySet()) {
+				if(interval.getKey()-start > SNAP_TOLERANCE_MM) free.add(new double[] {start, interval.getKey()});
+				start = Math.max(start, interval.getValue());
+			}
+			if(to-start > SNAP_TOLERANCE_MM) free.add(new double[] {start, to});
+
+			//merge [from, to] with the intervals it touches
+			double mergedFrom = from;
+			double mergedTo = to;
+			if(previous!=null && previous.getValue()>=from) {
+				mergedFrom = previous.getKey();
+				mergedTo = Math.max(mergedTo, previous.getValue());
+				burned.remove(previous.getKey());
+			}
+			Map<Double, Double> covered = burned.subMap(from, true, to, true);
+			for(Double end : covered.values()) {
+				mergedTo = Math.max(mergedTo, end);
+			}
+			covered.clear();
+			burned.put(mergedFrom, mergedTo);
+			return free;
+		}
+	}
+
+	private final Map<Long, List<Line>> lines = new HashMap<>();
+	private double removedLengthMM;
+
+	public static List<Polyline> deduplicate(List<Polyline> polylines) {
+		return new SegmentDeduplicator().process(polylines);
+	}
+
+	public List<Polyline> process(List<Polyline> polylines) {
+		List<Polyline> result = new ArrayList<>(polylines.size());
+		Polyline current = null;
+
+		for(Polyline polyline : polylines) {
+			int power = polyline.getPower();
+			for(int i=1;i<polyline.getPointCount();i++) {
+				double x1 = snap(polyline.getX(i-1));
+				double y1 = snap(polyline.getY(i-1));
+				double x2 = snap(polyline.getX(i));
+				double y2 = snap(polyline.getY(i));
+
+				double sweep = polyline.getSweep(i);
+				if(sweep!=0) {
+					current = append(result, current, power, x1, y1, x2, y2, sweep);
+					continue;
+				}
+
+				double length = Math.hypot(x2-x1, y2-y1);
+				if(length<=SNAP_TOLERANCE_MM) {
+					current = append(result, current, power, x1, y1, x2, y2, 0);
+					continue;
+				}
+
+				Line line = findLine(power, x1, y1, x2, y2);
+				double t1 = line.position(x1, y1);
+				double t2 = line.position(x2, y2);
+				boolean forward = t1<=t2;
+				List<double[]> free = forward ? line.burn(t1, t2) : line.burn(t2, t1);
+
+				double kept = 0;
+				for(int p=0;p<free.size();p++) {
+					double[] piece = free.get(forward ? p : free.size()-1-p);
+					//back to fractions along the segment, in its own direction
+					double f1 = ((forward ? piece[0] : piece[1]) - t1)/(t2-t1);
+					double f2 = ((forward ? piece[1] : piece[0]) - t1)/(t2-t1);
+					double px1 = f1<=0 ? x1 : x1 + (x2-x1)*f1;
+					double py1 = f1<=0 ? y1 : y1 + (y2-y1)*f1;
+					double px2 = f2>=1 ? x2 : x1 + (x2-x1)*f2;
+					double py2 = f2>=1 ? y2 : y1 + (y2-y1)*f2;
+					current = append(result, current, power, px1, py1, px2, py2, 0);
+					kept += Math.hypot(px2-px1, py2-py1);
+				}
+				removedLengthMM += Math.max(0, length-kept);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Total length of the segments that were dropped because they were
+	 * already burned.
+	 */
+	public double getRemovedLengthMM() {
+		return removedLengthMM;
+	}
+
+	private Line findLine(int power, double x1, double y1, double x2, double y2) {
+		double angle = Math.atan2(y2-y1, x2-x1);
+		if(angle<0) angle += Math.PI;
+		if(angle>=Math.PI) angle -= Math.PI;
+		double directionX = Math.cos(angle);
+		double directionY = Math.sin(angle);
+		double offset = -directionY*x1 + directionX*y1;
+
+		int angleBucket = Math.min(ANGLE_BUCKETS-1, (int) (angle/ANGLE_BUCKET));
+		for(int da=-1;da<=1;da++) {
+			int bucket = angleBucket+da;
+			//the direction flips when wrapping around half a turn, and the offset with it
+			boolean wrapped = bucket<0 || bucket>=ANGLE_BUCKETS;
+			bucket = Math.floorMod(bucket, ANGLE_BUCKETS);
+			long offsetBucket = (long) Math.floor((wrapped ? -offset : offset)/SNAP_TOLERANCE_MM);
+			for(long dOffset=-1;dOffset<=1;dOffset++) {
+				List<Line> candidates = lines.get(key(power, bucket, offsetBucket+dOffset));
+				if(candidates==null) continue;
+				for(Line line : candidates) {
+					if(line.distance(x1, y1)<=SNAP_TOLERANCE_MM/2 && line.distance(x2, y2)<=SNAP_TOLERANCE_MM/2) {
+						return line;
+					}
+				}
+			}
+		}
+
+		Line line = new Line(directionX, directionY, offset);
+		long offsetBucket = (long) Math.floor(offset/SNAP_TOLERANCE_MM);
+		lines.computeIfAbsent(key(power, angleBucket, offsetBucket), k->new ArrayList<>(1)).add(line);
+		return line;
+	}
+
+	private static long key(int power, int angleBucket, long offsetBucket) {
+		return (((long) power*ANGLE_BUCKETS + angleBucket) << 32) ^ (offsetBucket & 0xffffffffL);
+	}
+
+	private static Polyline append(List<Polyline> result, Polyline current, int power, double x1, double y1, double x2, double y2, double sweep) {
+		if(current==null || current.getPower()!=power || !current.endsAt(x1, y1, Toolpath.JOIN_TOLERANCE_MM)) {
+			current = new Polyline(power, x1, y1);
+			result.add(current);
+		}
+		if(sweep!=0) {
+			current.addArc(x2, y2, sweep);
+		}else {
+			current.addPoint(x2, y2);
+		}
+		return current;
+	}
+
+	private static double snap(double value) {
+		return Math.round(value/SNAP_TOLERANCE_MM)*SNAP_TOLERANCE_MM;
+	}
+}
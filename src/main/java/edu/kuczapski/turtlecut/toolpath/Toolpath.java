@@ -0,0 +1,116 @@
+package edu.kuczapski.turtlecut.toolpath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Ordered list of polylines to burn. Segments added one by one are chained
+ * into the last polyline when they continue it with the same power, so a
+ * closed shape drawn as separate lines is burned without stopping.
+ * <p>
+ * A toolpath created with a sink only keeps the polyline being built, and
+ * hands every polyline to the sink once the next one starts, so its memory
+ * does not grow with the program.
+ */
+public class Toolpath {
+
+	//distance under which two points are considered the same, well below the 0.01 mm G-code resolution
+	public static final double JOIN_TOLERANCE_MM = 1e-4;
+
+	private final List<Polyline> polylines = new ArrayList<>();
+	private final Consumer<Polyline> sink;
+
+	public Toolpath() {
+		this(null);
+	}
+
+	/**
+	 * Toolpath streaming its polylines to the sink, {@link #flush()} hands
+	 * over the last one.
+	 */
+	public Toolpath(Consumer<Polyline> sink) {
+		this.sink = sink;
+	}
+
+	public void addSegment(int power, double x1, double y1, double x2, double y2) {
+		if(Math.abs(x2-x1)<=JOIN_TOLERANCE_MM && Math.abs(y2-y1)<=JOIN_TOLERANCE_MM) return;
+
+		Polyline last = polylines.isEmpty() ? null : polylines.get(polylines.size()-1);
+		if(last==null || last.getPower()!=power || !last.endsAt(x1, y1, JOIN_TOLERANCE_MM)) {
+			last = start(power, x1, y1);
+		}
+		last.addPoint(x2, y2);
+	}
+
+	/**
+	 * Adds a circular arc around (centerX, centerY), split in pieces of at
+	 * most a quarter turn so every piece has distinct ends and a well defined
+	 * center in G-code.
+	 */
+	public void addArc(int power, double centerX, double centerY, double radius, double startAngle, double sweep) {
+		if(radius<=JOIN_TOLERANCE_MM || sweep==0) return;
+
+		int pieces = (int) Math.ceil(Math.abs(sweep)/(Math.PI/2) - 1e-9);
+		double step = sweep/pieces;
+		double x = centerX + radius*Math.cos(startAngle);
+		double y = centerY + radius*Math.sin(startAngle);
+
+		Polyline last = polylines.isEmpty() ? null : polylines.get(polylines.size()-1);
+		if(last==null || last.getPower()!=power || !last.endsAt(x, y, JOIN_TOLERANCE_MM)) {
+			last = start(power, x, y);
+		}
+		for(int i=1;i<=pieces;i++) {
+			double angle = startAngle + step*i;
+			last.addArc(centerX + radius*Math.cos(angle), centerY + radius*Math.sin(angle), step);
+		}
+	}
+
+	/**
+	 * Hands the polyline being built to the sink, nothing happens without one.
+	 */
+	public void flush() {
+		if(sink==null) return;
+		for(Polyline polyline : polylines) {
+			sink.accept(polyline);
+		}
+		polylines.clear();
+	}
+
+	private Polyline start(int power, double x, double y) {
+		//the previous polyline can not be continued any more
+		flush();
+		Polyline polyline = new Polyline(power, x, y);
+		polylines.add(polyline);
+		return polyline;
+	}
+
+	public List<Polyline> getPolylines() {
+		return Collections.unmodifiableList(polylines);
+	}
+
+	/**
+	 * Length of the rapid moves needed to burn the polylines in the given
+	 * order, starting from (startX, startY).
+	 */
+	public static double getTravelDistance(List<Polyline> polylines, double startX, double startY) {
+		double travel = 0;
+		double x = startX;
+		double y = startY;
+		for(Polyline polyline : polylines) {
+			travel += Math.hypot(polyline.getStartX()-x, polyline.getStartY()-y);
+			x = polyline.getEndX();
+			y = polyline.getEndY();
+		}
+		return travel;
+	}
+
+	public int getSegmentCount() {
+		int count = 0;
+		for(Polyline polyline : polylines) {
+			count += polyline.getSegmentCount();
+		}
+		return count;
+	}
+}